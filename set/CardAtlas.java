@@ -0,0 +1,175 @@
+package bguspl.set;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * The card images of a deck, packed into a single sprite atlas at cell size.
+ * Images are decoded in parallel on a background pool as soon as the atlas is created, and a card that is needed
+ * before it is decoded is queued right away. Cards whose image file is missing are drawn by the CardRenderer instead.
+ * Atlases are shared by every window showing the same deck.
+ */
+final class CardAtlas implements CardImages {
+
+    private static final int NOT_LOADED = 0;
+    private static final int LOADING = 1;
+    private static final int READY = 2;
+
+    /**
+     * The atlases created so far, keyed by deck and cell dimensions.
+     */
+    private static final Map<String, CardAtlas> atlases = new ConcurrentHashMap<>();
+
+    /**
+     * The daemon threads decoding the images of all atlases.
+     */
+    private static final ExecutorService loaders = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), runnable -> {
+                Thread thread = new Thread(runnable, "card-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Logger logger;
+    private final Config config;
+    private final CardRenderer fallback;
+
+    /**
+     * The packed image holding deckSize card sprites followed by the empty card.
+     */
+    private final BufferedImage atlas;
+
+    /**
+     * The sprites (sub images sharing the atlas pixels), the empty card is at index deckSize.
+     */
+    private final BufferedImage[] sprites;
+
+    /**
+     * The loading state of each sprite.
+     */
+    private final AtomicIntegerArray states;
+
+    /**
+     * Called whenever a sprite becomes ready (e.g. to repaint).
+     */
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private CardAtlas(Logger logger, Config config, CardRenderer fallback) {
+        this.logger = logger;
+        this.config = config;
+        this.fallback = fallback;
+
+        assert config.featureSize < 10; // otherwise there will be naming conflicts
+
+        int count = config.deckSize + 1;
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int rows = (count + columns - 1) / columns;
+        atlas = new BufferedImage(columns * config.cellWidth, rows * config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+        sprites = new BufferedImage[count];
+        for (int i = 0; i < count; ++i)
+            sprites[i] = atlas.getSubimage((i % columns) * config.cellWidth, (i / columns) * config.cellHeight,
+                    config.cellWidth, config.cellHeight);
+        states = new AtomicIntegerArray(count);
+
+        // the empty card is needed right away, the cards are decoded in the background
+        load(config.deckSize);
+        for (int card = 0; card < config.deckSize; ++card)
+            schedule(card);
+    }
+
+    /**
+     * Returns the atlas of the configured deck, creating it on first use.
+     *
+     * @param logger   - the logger used to report missing images.
+     * @param config   - the game configuration (deck and cell dimensions).
+     * @param fallback - draws the cards whose image cannot be loaded.
+     * @return - the shared atlas.
+     */
+    static CardAtlas of(Logger logger, Config config, CardRenderer fallback) {
+        String key = format("%d:%d:%d:%d", config.featureCount, config.featureSize, config.cellWidth, config.cellHeight);
+        return atlases.computeIfAbsent(key, k -> new CardAtlas(logger, config, fallback));
+    }
+
+    /**
+     * Checks whether image files can exist for the configured deck (file names are the features in base featureSize).
+     *
+     * @param config - the game configuration.
+     * @return - true iff the deck has card images.
+     */
+    static boolean hasImages(Config config) {
+        return config.featureSize < 10 && CardAtlas.class.getClassLoader().getResource("cards/"
+                + UserInterfaceSwing.intInBaseToPaddedString(0, config.featureCount, config.featureSize) + ".png") != null;
+    }
+
+    @Override
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public Image emptyCard() {
+        return sprites[config.deckSize];
+    }
+
+    /**
+     * Returns the sprite of a card, or the empty card if it is not decoded yet (in which case it is loaded right away
+     * and the listeners are notified once it is ready).
+     *
+     * @param card - the card id.
+     * @return - the card sprite.
+     */
+    @Override
+    public Image card(int card) {
+        int state = states.get(card);
+        if (state == READY) return sprites[card];
+        if (state == NOT_LOADED) schedule(card);
+        return emptyCard();
+    }
+
+    /**
+     * Submits a card to the loaders, once: only the caller that moves it from NOT_LOADED to LOADING submits it.
+     */
+    private void schedule(int index) {
+        if (states.compareAndSet(index, NOT_LOADED, LOADING)) loaders.execute(() -> load(index));
+    }
+
+    private void load(int index) {
+        String filename = index == config.deckSize
+                ? "cards/empty_card.png"
+                : "cards/" + UserInterfaceSwing.intInBaseToPaddedString(index, config.featureCount, config.featureSize) + ".png";
+        Image image;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(filename)) {
+            if (is == null) throw new FileNotFoundException(filename);
+            image = ImageIO.read(is);
+            if (image == null) throw new IOException("cannot decode " + filename);
+        } catch (IOException e) {
+            logger.severe("error loading card image, drawing it instead: " + e.getMessage());
+            image = index == config.deckSize ? fallback.emptyCard() : fallback.card(index);
+        }
+        Graphics2D g = sprites[index].createGraphics();
+        g.drawImage(image, 0, 0, config.cellWidth, config.cellHeight, null);
+        g.dispose();
+        states.set(index, READY);
+        for (Runnable listener : listeners)
+            listener.run();
+    }
+}
@@ -0,0 +1,33 @@
+package bguspl.set;
+
+import java.awt.*;
+
+/**
+ * A source of card images at cell size, used by the game panel to paint the table grid.
+ */
+interface CardImages {
+
+    /**
+     * Returns the image of a card.
+     * @param card - the card id.
+     * @return - the card image (the empty card if it is not available yet).
+     */
+    Image card(int card);
+
+    /**
+     * @return - the image of an empty slot.
+     */
+    Image emptyCard();
+
+    /**
+     * Register a callback to run whenever a card image that was not available becomes ready.
+     * @param listener - the callback (e.g. repaint).
+     */
+    default void addListener(Runnable listener) {}
+
+    /**
+     * Remove a callback registered with addListener.
+     * @param listener - the callback.
+     */
+    default void removeListener(Runnable listener) {}
+}
@@ -0,0 +1,138 @@
+package bguspl.set;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws cards directly from their features, so any deck can be shown without image files.
+ * Feature 0 is the number of symbols, feature 1 the color, feature 2 the shape and feature 3 the shading (solid,
+ * hatched or outlined); any further features are printed at the bottom of the card. Rendered cards are kept in a small
+ * LRU cache keyed by card id, so memory stays bounded for large decks.
+ */
+final class CardRenderer implements CardImages {
+
+    /**
+     * The number of rendered cards kept in the cache.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    private final Config config;
+    private final Util util;
+    private final int width;
+    private final int height;
+    private final BufferedImage emptyCard;
+
+    private final Map<Integer, BufferedImage> cache = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    CardRenderer(Config config, Util util) {
+        this.config = config;
+        this.util = util;
+        this.width = config.cellWidth;
+        this.height = config.cellHeight;
+        emptyCard = render(null);
+    }
+
+    @Override
+    public synchronized Image card(int card) {
+        return cache.computeIfAbsent(card, c -> render(util.cardToFeatures(c)));
+    }
+
+    @Override
+    public Image emptyCard() {
+        return emptyCard;
+    }
+
+    private BufferedImage render(int[] features) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        int margin = Math.max(2, Math.min(width, height) / 20);
+        Shape face = new RoundRectangle2D.Double(margin, margin, width - 2 * margin, height - 2 * margin, 4 * margin, 4 * margin);
+        g.setColor(Color.WHITE);
+        g.fill(face);
+        g.setColor(Color.GRAY);
+        g.setStroke(new BasicStroke(Math.max(1, margin / 3f)));
+        g.draw(face);
+
+        if (features != null) drawSymbols(g, features, margin);
+        g.dispose();
+        return image;
+    }
+
+    private int feature(int[] features, int index) {
+        return index < features.length ? features[index] : 0;
+    }
+
+    private void drawSymbols(Graphics2D g, int[] features, int margin) {
+        int symbols = feature(features, 0) + 1;
+        Color color = Color.getHSBColor((float) feature(features, 1) / config.featureSize, 0.85f, 0.8f);
+
+        // lay the symbols out in a row, each in a slot of equal width
+        int slotWidth = (width - 4 * margin) / Math.max(symbols, config.featureSize);
+        int symbolHeight = height - 8 * margin;
+        int symbolWidth = Math.min(slotWidth - margin, symbolHeight / 2 + margin);
+        int left = (width - symbols * slotWidth) / 2;
+        for (int i = 0; i < symbols; ++i) {
+            int x = left + i * slotWidth + (slotWidth - symbolWidth) / 2;
+            Shape symbol = symbol(feature(features, 2), x, 3 * margin, symbolWidth, symbolHeight);
+            shade(g, symbol, feature(features, 3), color, margin);
+        }
+
+        if (features.length > 4) {
+            StringBuilder extra = new StringBuilder();
+            for (int i = 4; i < features.length; ++i) extra.append(features[i]).append(' ');
+            g.setColor(Color.DARK_GRAY);
+            g.setFont(new Font("Serif", Font.BOLD, Math.max(8, 3 * margin)));
+            g.drawString(extra.toString().trim(), 3 * margin, height - 2 * margin);
+        }
+    }
+
+    /**
+     * Shape 0 is an oval, any other shape v is a regular polygon of v + 2 sides.
+     */
+    private Shape symbol(int shape, int x, int y, int w, int h) {
+        if (shape == 0) return new Ellipse2D.Double(x, y, w, h);
+        int sides = shape + 2;
+        Path2D.Double polygon = new Path2D.Double();
+        for (int i = 0; i < sides; ++i) {
+            double angle = -Math.PI / 2 + 2 * Math.PI * i / sides;
+            double px = x + w / 2.0 + Math.cos(angle) * w / 2.0;
+            double py = y + h / 2.0 + Math.sin(angle) * h / 2.0;
+            if (i == 0) polygon.moveTo(px, py);
+            else polygon.lineTo(px, py);
+        }
+        polygon.closePath();
+        return polygon;
+    }
+
+    /**
+     * Shading 0 is solid, the last shading is an outline and the ones in between are hatched with growing gaps.
+     */
+    private void shade(Graphics2D g, Shape symbol, int shading, Color color, int margin) {
+        g.setColor(color);
+        if (shading == 0) g.fill(symbol);
+        else if (shading < config.featureSize - 1) {
+            Shape clip = g.getClip();
+            g.clip(symbol);
+            Rectangle bounds = symbol.getBounds();
+            int gap = Math.max(2, shading * margin / 2 + 1);
+            g.setStroke(new BasicStroke(1));
+            for (int y = bounds.y; y <= bounds.y + bounds.height; y += gap)
+                g.drawLine(bounds.x, y, bounds.x + bounds.width, y);
+            g.setClip(clip);
+        }
+        g.setStroke(new BasicStroke(Math.max(1, margin / 2f)));
+        g.draw(symbol);
+    }
+}
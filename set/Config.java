@@ -21,6 +21,11 @@ public class Config {
     public final long randomSpinMin;
     public final long randomSpinMax;
 
+    /**
+     * Whether to profile the contention of the game's locks (see ProfiledLock)
+     */
+    public final boolean lockProfiling;
+
     /**
      * The number of features on the cards (e.g. shape, color etc.)
      */
@@ -36,6 +41,28 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * Whether to test sets on packed feature lanes (see PackedUtilImpl) instead of feature by feature
+     */
+    public final boolean packedSets;
+
+    /**
+     * The number of threads validating the players' sets ahead of the dealer (0 for the dealer to validate them)
+     */
+    public final int claimValidators;
+
+    /**
+     * The dealer engine: "threads" (a thread per player, the dealer checks the queued sets) or "actor" (the dealer
+     * thread owns the table, tokens and scores, and handles the key presses posted to its mailbox, see ActorDealer)
+     */
+    public final String dealerEngine;
+
+    /**
+     * The number of milliseconds the dealer waits after the press that completed a set for sets pressed earlier but
+     * queued later, checking them in the order they were pressed (0 to check the sets in the order they are queued)
+     */
+    public final long arbitrationWindowMillis;
+
     /**
      * The number of human players in the game.
      */
@@ -51,6 +78,38 @@ public class Config {
      */
     public final int players;
 
+    /**
+     * The number of key presses per second each random computer player makes (0 for as fast as possible)
+     */
+    public final int computerPressesPerSecond;
+
+    /**
+     * The number of key presses each player can have waiting to be handled (see PressRing)
+     */
+    public final int pressBufferSize;
+
+    /**
+     * What to do with a key press when the player's buffer is full: "dropnewest" (drop the press), "dropoldest" (drop
+     * the oldest press waiting) or "block" (the pressing thread waits for room; computer players only, human players
+     * drop the press)
+     */
+    public final String pressOverflow;
+
+    /**
+     * The strategy of the computer players: "random" (press random slots) or "solver" (press the slots of a set)
+     */
+    public final String computerStrategy;
+
+    /**
+     * The median number of milliseconds between the presses of a solver computer player
+     */
+    public final long solverPressMillis;
+
+    /**
+     * The seed of the computer players' random draws (each player draws from its own generator, see playerSeed)
+     */
+    public final long randomSeed;
+
     /**
      * Whether to print out hints to the console or not
      */
@@ -107,6 +166,16 @@ public class Config {
      */
     public final int tableSize;
 
+    /**
+     * The maximum number of cards the dealer may add beyond the table grid when there is no legal set on the table
+     */
+    public final int maxExtraCards;
+
+    /**
+     * The maximum number of cells in the table grid (i.e. tableSize + maxExtraCards)
+     */
+    public final int maxTableSize;
+
     /**
      * The width (in pixels) of each cell
      */
@@ -127,22 +196,118 @@ public class Config {
      */
     public final int playerCellHeight;
 
+    /**
+     * Whether to draw the cards from their features instead of loading the card images
+     */
+    public final boolean proceduralCards;
+
     /**
      * The size of the displayed font
      */
     public final int fontSize;
 
+    /**
+     * The TCP port on which spectators can watch the game over WebSocket (0 to disable)
+     */
+    public final int spectatorPort;
+
+    /**
+     * The number of bytes a spectator (or remote player) may fall behind before it is disconnected
+     */
+    public final int spectatorBufferBytes;
+
+    /**
+     * The TCP port on which remote human players can connect (0 to disable)
+     */
+    public final int remotePlayersPort;
+
+    /**
+     * The TCP port on which the metrics are served over HTTP in the Prometheus format (0 to disable)
+     */
+    public final int metricsPort;
+
+    /**
+     * The number of calls each user interface may fall behind before its backlog is dropped and it is brought to the
+     * current state
+     */
+    public final int uiQueueSize;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
      * 1. This should correspond to the number of human players and the dimensions of the table card grid (i.e. the
      * first n codes are for the first row, the 2nd n codes are for the 2nd row etc., n being the number of columns).
      * 2. If the number of entries here does not match the number of human players a warning will be issued
+     * 3. Codes beyond the table size are used for the extra cards (see maxExtraCards)
      */
     private final int[][] playerKeys;
 
     /**
-     * The default scan codes data (this is the same as in the default config.properties file)
+     * The skill of each player when played by a solver computer player
+     */
+    private final Skill[] playerSkills;
+
+    /**
+     * How well a solver computer player plays.
+     */
+    public static final class Skill {
+
+        public static final Skill NOVICE = new Skill(0.5, 4000, 0.6, 0.15);
+        public static final Skill AVERAGE = new Skill(0.8, 2500, 0.5, 0.05);
+        public static final Skill EXPERT = new Skill(0.95, 1200, 0.35, 0.01);
+        public static final Skill PERFECT = new Skill(1, 200, 0, 0);
+
+        /**
+         * The probability of noticing the set looked at (otherwise the player looks again)
+         */
+        public final double detection;
+
+        /**
+         * The median and the shape (sigma of the underlying normal) of the log-normal time to react to a set
+         */
+        public final long reactionMedianMillis;
+        public final double reactionSigma;
+
+        /**
+         * The probability of claiming a wrong set instead of the set noticed
+         */
+        public final double errorRate;
+
+        public Skill(double detection, long reactionMedianMillis, double reactionSigma, double errorRate) {
+            this.detection = detection;
+            this.reactionMedianMillis = reactionMedianMillis;
+            this.reactionSigma = reactionSigma;
+            this.errorRate = errorRate;
+        }
+
+        /**
+         * Parses a skill level (Novice, Average, Expert or Perfect) or its parameters: detection, reaction median
+         * seconds, reaction sigma, error rate (e.g. "0.9, 1.5, 0.4, 0.05").
+         *
+         * @throws IllegalArgumentException - if the skill is malformed.
+         */
+        public static Skill parse(String text) {
+            switch (text.trim().toLowerCase()) {
+                case "novice": return NOVICE;
+                case "average": return AVERAGE;
+                case "expert": return EXPERT;
+                case "perfect": return PERFECT;
+            }
+            String[] values = text.split(",");
+            if (values.length != 4) throw new IllegalArgumentException("expected a level or 4 values: " + text);
+            Skill skill = new Skill(Double.parseDouble(values[0].trim()),
+                    (long) (Double.parseDouble(values[1].trim()) * 1000.0),
+                    Double.parseDouble(values[2].trim()), Double.parseDouble(values[3].trim()));
+            if (skill.detection <= 0 || skill.detection > 1 || skill.reactionMedianMillis < 0 || skill.reactionSigma < 0
+                    || skill.errorRate < 0 || skill.errorRate > 1)
+                throw new IllegalArgumentException("skill values out of range: " + text);
+            return skill;
+        }
+    }
+
+    /**
+     * The default scan codes data, one key per slot of the default table size only (the default config.properties file
+     * also lists keys for the extra slots)
      */
     private static final String[] playerKeysDefaults = {
             "81,87,69,82,65,83,68,70,90,88,67,86",
@@ -192,16 +357,26 @@ public class Config {
         randomSpinMax = Long.parseLong(properties.getProperty("RandomSpinMax", "0"));
         if (randomSpinMax < randomSpinMin || randomSpinMin < 0)
             logger.severe("invalid random spin cycles: max: " + randomSpinMax + " min: " + randomSpinMin);
+        lockProfiling = Boolean.parseBoolean(properties.getProperty("LockProfiling", "False"));
 
         // cards settings
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
         deckSize = (int) Math.pow(featureSize, featureCount);
+        packedSets = Boolean.parseBoolean(properties.getProperty("PackedSets", "False"));
+        claimValidators = Integer.parseInt(properties.getProperty("ClaimValidators", "0"));
+        dealerEngine = properties.getProperty("DealerEngine", "Threads").trim().toLowerCase();
+        arbitrationWindowMillis = (long) (Double.parseDouble(properties.getProperty("ArbitrationWindowSeconds", "0")) * 1000.0);
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
         players = humanPlayers + computerPlayers;
+        computerPressesPerSecond = Integer.parseInt(properties.getProperty("ComputerPressesPerSecond", "0"));
+        pressBufferSize = Integer.parseInt(properties.getProperty("PressBufferSize", String.valueOf(featureSize)));
+        pressOverflow = properties.getProperty("PressOverflow", "DropNewest").trim().toLowerCase();
+        computerStrategy = properties.getProperty("ComputerStrategy", "Random").trim().toLowerCase();
+        solverPressMillis = (long) (Double.parseDouble(properties.getProperty("SolverPressSeconds", "0.3")) * 1000.0);
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
@@ -219,23 +394,47 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        maxExtraCards = Integer.parseInt(properties.getProperty("MaxExtraCards", "0"));
+        maxTableSize = tableSize + Math.max(0, maxExtraCards);
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        proceduralCards = Boolean.parseBoolean(properties.getProperty("ProceduralCards", "False"));
+        spectatorPort = Integer.parseInt(properties.getProperty("SpectatorPort", "0"));
+        spectatorBufferBytes = Integer.parseInt(properties.getProperty("SpectatorBufferKB", "1024")) * 1024;
+        remotePlayersPort = Integer.parseInt(properties.getProperty("RemotePlayersPort", "0"));
+        metricsPort = Integer.parseInt(properties.getProperty("MetricsPort", "0"));
+        uiQueueSize = Integer.parseInt(properties.getProperty("UserInterfaceQueueSize", "4096"));
+
+        String seed = properties.getProperty("RandomSeed", "").trim();
+        randomSeed = seed.isEmpty() ? System.nanoTime() : Long.parseLong(seed);
+        logger.info("random seed: " + randomSeed);
+
+        String defaultSkill = properties.getProperty("ComputerSkill", "Average");
+        playerSkills = new Skill[players];
+        for (int i = 0; i < players; i++) {
+            String skill = properties.getProperty("PlayerSkill" + (i + 1), defaultSkill);
+            try {
+                playerSkills[i] = Skill.parse(skill);
+            } catch (IllegalArgumentException e) {
+                logger.severe("warning: player " + (i + 1) + " skill is invalid (" + e.getMessage() + "), using average.");
+                playerSkills[i] = Skill.AVERAGE;
+            }
+        }
 
         // keyboard input data
-        playerKeys = new int[players][rows * columns];
+        playerKeys = new int[players][maxTableSize];
         for (int i = 0; i < players; i++) {
             String defaultCodes = "";
             if (i < 2) defaultCodes = playerKeysDefaults[i];
             String playerKeysString = properties.getProperty("PlayerKeys" + (i + 1), defaultCodes);
             if (playerKeysString.length() > 0) {
                 String[] codes = playerKeysString.split(",");
-                if (codes.length != tableSize)
+                if (codes.length < tableSize || codes.length > maxTableSize)
                     logger.severe("warning: player " + (i + 1) + " keys (" + codes.length + ") mismatch table size (" + tableSize + ").");
-                for (int j = 0; j < Math.min(codes.length, tableSize); ++j) // parse the key codes string
+                for (int j = 0; j < Math.min(codes.length, maxTableSize); ++j) // parse the key codes string
                     playerKeys[i][j] = Integer.parseInt(codes[j]);
             }
         }
@@ -244,4 +443,18 @@ public class Config {
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
+
+    public Skill playerSkill(int player) {
+        return playerSkills[player];
+    }
+
+    /**
+     * @return - the seed of the random generator of a player, derived from randomSeed (SplitMix64).
+     */
+    public long playerSeed(int player) {
+        long z = randomSeed + (player + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
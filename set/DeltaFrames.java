@@ -0,0 +1,93 @@
+package bguspl.set;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of user interface calls, used to mirror a game to remote viewers.
+ * A frame is an opcode byte followed by its arguments as zigzag varints (most frames are 2 to 5 bytes long). The
+ * winners frame starts with the number of winners, and the hello frame ends with the player names as length prefixed
+ * UTF-8 strings. Remote players send join and press frames back.
+ */
+final class DeltaFrames {
+
+    static final byte HELLO = 0;           // featureCount, featureSize, rows, columns, maxTableSize, players, names
+    static final byte PLACE_CARD = 1;      // card, slot
+    static final byte REMOVE_CARD = 2;     // slot
+    static final byte RESIZE_TABLE = 3;    // slots
+    static final byte PLACE_TOKEN = 4;     // player, slot
+    static final byte REMOVE_TOKEN = 5;    // player, slot
+    static final byte REMOVE_TOKENS = 6;   // slot
+    static final byte CLEAR_TOKENS = 7;
+    static final byte COUNTDOWN = 8;       // millies, warn (0/1)
+    static final byte ELAPSED = 9;         // millies
+    static final byte FREEZE = 10;         // player, millies
+    static final byte SCORE = 11;          // player, score
+    static final byte WINNERS = 12;        // count, players...
+    static final byte JOIN = 13;           // player (sent by remote players)
+    static final byte PRESS = 14;          // slot (sent by remote players)
+
+    private DeltaFrames() {}
+
+    /**
+     * Encodes a frame.
+     *
+     * @param opcode - the frame opcode.
+     * @param values - the frame arguments.
+     * @return - the encoded frame.
+     */
+    static byte[] frame(byte opcode, long... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 + values.length * 2);
+        out.write(opcode);
+        for (long value : values)
+            writeVarLong(out, value);
+        return out.toByteArray();
+    }
+
+    static byte[] winners(int[] players) {
+        long[] values = new long[players.length + 1];
+        values[0] = players.length;
+        for (int i = 0; i < players.length; i++) values[i + 1] = players[i];
+        return frame(WINNERS, values);
+    }
+
+    static byte[] hello(Config config) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(HELLO);
+        for (long value : new long[]{config.featureCount, config.featureSize, config.rows, config.columns,
+                config.maxTableSize, config.players})
+            writeVarLong(out, value);
+        for (String name : config.playerNames) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    /**
+     * Decodes a zigzag varint.
+     *
+     * @param frame    - the encoded bytes.
+     * @param position - a single element array holding the read position, advanced past the value.
+     * @return - the value, or Long.MIN_VALUE if the frame ends before the value does.
+     */
+    static long readVarLong(byte[] frame, int[] position) {
+        long zigzag = 0;
+        for (int shift = 0; position[0] < frame.length && shift < Long.SIZE; shift += 7) {
+            byte b = frame[position[0]++];
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,231 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A TCP server broadcasting the game's delta frames to its connections from a single selector thread.
+ * Every connection has its own send queue, and a connection that falls more than maxPendingBytes behind is
+ * disconnected, so a slow connection never holds back the game or the other connections. Subclasses define the wire
+ * format of the frames and handle the bytes received.
+ */
+abstract class DeltaServer extends DeltaUserInterface {
+
+    private static final int INPUT_BUFFER_BYTES = 8192;
+
+    protected final Logger logger;
+    private final int maxPendingBytes;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread selectorThread;
+
+    /**
+     * Frames waiting to be handed to the connections by the selector thread.
+     */
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean terminate;
+
+    /**
+     * The state of a connection (owned by the selector thread).
+     */
+    protected static class Connection {
+        protected final SocketChannel channel;
+        protected final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_BYTES);
+        private final Queue<ByteBuffer> pending = new ArrayDeque<>();
+        private long pendingBytes;
+        private boolean open; // true once the connection receives the broadcasts
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        protected boolean isOpen() {
+            return open;
+        }
+    }
+
+    /**
+     * Starts listening for connections.
+     *
+     * @param logger          - the logger.
+     * @param config          - the game configuration.
+     * @param port            - the TCP port to listen on (0 for any free port).
+     * @param maxPendingBytes - the number of bytes a connection may fall behind before it is disconnected.
+     * @param name            - the name of the selector thread.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    DeltaServer(Logger logger, Config config, int port, int maxPendingBytes, String name) throws IOException {
+        super(config);
+        this.logger = logger;
+        this.maxPendingBytes = maxPendingBytes;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        selectorThread = new Thread(this::run, name);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        logger.info(name + " listening on port " + port());
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Encodes a frame for the wire.
+     *
+     * @param frame - the delta frame.
+     * @return - a read only buffer with the bytes to send.
+     */
+    protected abstract ByteBuffer wrap(byte[] frame);
+
+    /**
+     * Called on the selector thread after bytes were read into the connection's input buffer (in write mode).
+     *
+     * @param key        - the connection's key.
+     * @param connection - the connection.
+     */
+    protected abstract void received(SelectionKey key, Connection connection);
+
+    /**
+     * Called on the selector thread when a connection is closed.
+     *
+     * @param connection - the connection.
+     */
+    protected void closed(Connection connection) {}
+
+    @Override
+    protected void broadcast(byte[] frame) {
+        outbox.add(wrap(frame));
+        selector.wakeup();
+    }
+
+    /**
+     * Starts sending the broadcasts to a connection, beginning with a snapshot of the current state.
+     */
+    protected void open(SelectionKey key) {
+        ((Connection) key.attachment()).open = true;
+        for (byte[] frame : snapshot())
+            send(key, wrap(frame));
+    }
+
+    private void run() {
+        while (!terminate) {
+            try {
+                selector.select();
+                for (ByteBuffer frame; (frame = outbox.poll()) != null; )
+                    for (SelectionKey key : selector.keys())
+                        if (key.attachment() instanceof Connection && ((Connection) key.attachment()).open)
+                            send(key, frame.duplicate());
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else try {
+                        if (key.isReadable()) read(key);
+                        if (key.isValid() && key.isWritable()) flush(key);
+                    } catch (RuntimeException e) { // only this connection fails, not the selector thread
+                        logger.log(Level.SEVERE, "closing failed connection: "
+                                + ((Connection) key.attachment()).channel.socket().getRemoteSocketAddress(), e);
+                        close(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                logger.severe(Thread.currentThread().getName() + " error: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys())
+            close(key);
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void read(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (!connection.input.hasRemaining() || connection.channel.read(connection.input) < 0) {
+                close(key);
+                return;
+            }
+        } catch (IOException e) {
+            close(key);
+            return;
+        }
+        received(key, connection);
+    }
+
+    /**
+     * Queues bytes to a connection, disconnecting it if it is too far behind.
+     */
+    protected void send(SelectionKey key, ByteBuffer buffer) {
+        Connection connection = (Connection) key.attachment();
+        if (!key.isValid()) return;
+        if (connection.pendingBytes + buffer.remaining() > maxPendingBytes) {
+            logger.severe("dropping slow connection: " + connection.channel.socket().getRemoteSocketAddress());
+            close(key);
+            return;
+        }
+        connection.pending.add(buffer);
+        connection.pendingBytes += buffer.remaining();
+        flush(key);
+    }
+
+    private void flush(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            for (ByteBuffer buffer; (buffer = connection.pending.peek()) != null; ) {
+                connection.pendingBytes -= connection.channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                connection.pending.remove();
+            }
+        } catch (IOException e) {
+            close(key);
+            return;
+        }
+        key.interestOps(connection.pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    protected void close(SelectionKey key) {
+        if (!key.isValid()) return;
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+        if (key.attachment() instanceof Connection) closed((Connection) key.attachment());
+    }
+
+    @Override
+    public void dispose() {
+        terminate = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException ignored) {}
+    }
+}
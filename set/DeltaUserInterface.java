@@ -0,0 +1,139 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A user interface that encodes every call as a delta frame (see DeltaFrames) and broadcasts it to remote viewers.
+ * It keeps a mirror of what is displayed, so that a viewer joining in the middle of a game first receives a snapshot
+ * of the current state and then the deltas that follow it.
+ */
+abstract class DeltaUserInterface implements UserInterface {
+
+    protected final Config config;
+
+    private final int[] slotToCard;
+    private final boolean[][] tokens;
+    private final int[] scores;
+    private final long[] freezes;
+    private int slots;
+    private long countdown = -1;
+    private boolean warn;
+    private long elapsed = -1;
+    private int[] winners;
+
+    DeltaUserInterface(Config config) {
+        this.config = config;
+        slotToCard = new int[config.maxTableSize];
+        Arrays.fill(slotToCard, -1);
+        tokens = new boolean[config.maxTableSize][config.players];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        slots = config.tableSize;
+    }
+
+    /**
+     * Sends a frame to all the viewers. Called in the order of the user interface calls, and must not block.
+     *
+     * @param frame - the encoded frame.
+     */
+    protected abstract void broadcast(byte[] frame);
+
+    /**
+     * @return - the frames that bring a new viewer to the current state.
+     */
+    protected synchronized List<byte[]> snapshot() {
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(DeltaFrames.hello(config));
+        frames.add(DeltaFrames.frame(DeltaFrames.RESIZE_TABLE, slots));
+        for (int slot = 0; slot < slotToCard.length; slot++) {
+            if (slotToCard[slot] >= 0) frames.add(DeltaFrames.frame(DeltaFrames.PLACE_CARD, slotToCard[slot], slot));
+            for (int player = 0; player < config.players; player++)
+                if (tokens[slot][player]) frames.add(DeltaFrames.frame(DeltaFrames.PLACE_TOKEN, player, slot));
+        }
+        for (int player = 0; player < config.players; player++) {
+            frames.add(DeltaFrames.frame(DeltaFrames.SCORE, player, scores[player]));
+            if (freezes[player] > 0) frames.add(DeltaFrames.frame(DeltaFrames.FREEZE, player, freezes[player]));
+        }
+        if (countdown >= 0) frames.add(DeltaFrames.frame(DeltaFrames.COUNTDOWN, countdown, warn ? 1 : 0));
+        if (elapsed >= 0) frames.add(DeltaFrames.frame(DeltaFrames.ELAPSED, elapsed));
+        if (winners != null) frames.add(DeltaFrames.winners(winners));
+        return frames;
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        slotToCard[slot] = card;
+        broadcast(DeltaFrames.frame(DeltaFrames.PLACE_CARD, card, slot));
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        slotToCard[slot] = -1;
+        broadcast(DeltaFrames.frame(DeltaFrames.REMOVE_CARD, slot));
+    }
+
+    @Override
+    public synchronized void resizeTable(int slots) {
+        this.slots = slots;
+        broadcast(DeltaFrames.frame(DeltaFrames.RESIZE_TABLE, slots));
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        tokens[slot][player] = true;
+        broadcast(DeltaFrames.frame(DeltaFrames.PLACE_TOKEN, player, slot));
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        for (boolean[] slotTokens : tokens) Arrays.fill(slotTokens, false);
+        broadcast(DeltaFrames.frame(DeltaFrames.CLEAR_TOKENS));
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        Arrays.fill(tokens[slot], false);
+        broadcast(DeltaFrames.frame(DeltaFrames.REMOVE_TOKENS, slot));
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        tokens[slot][player] = false;
+        broadcast(DeltaFrames.frame(DeltaFrames.REMOVE_TOKEN, player, slot));
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        countdown = millies;
+        this.warn = warn;
+        elapsed = -1;
+        broadcast(DeltaFrames.frame(DeltaFrames.COUNTDOWN, millies, warn ? 1 : 0));
+    }
+
+    @Override
+    public synchronized void setElapsed(long millies) {
+        elapsed = millies;
+        countdown = -1;
+        broadcast(DeltaFrames.frame(DeltaFrames.ELAPSED, millies));
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        freezes[player] = millies;
+        broadcast(DeltaFrames.frame(DeltaFrames.FREEZE, player, millies));
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        scores[player] = score;
+        broadcast(DeltaFrames.frame(DeltaFrames.SCORE, player, score));
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        winners = players.clone();
+        broadcast(DeltaFrames.winners(players));
+    }
+}
@@ -0,0 +1,109 @@
+package bguspl.set;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks the dealer engines (see Config.dealerEngine) against each other: runs a load test (see LoadTest) of every
+ * engine with every number of players, each in a JVM of its own so that they do not share the JIT or the heap, and
+ * prints a table of the results.
+ * Usage: EngineBenchmark [config file] [Key=Value...], where Engines (default Threads,Actor) and Players (default
+ * 10,100,1000) list what to compare, and the other keys are passed on to the load test (e.g. DurationSeconds=10,
+ * ComputerPressesPerSecond=20).
+ */
+public class EngineBenchmark {
+
+    /**
+     * The time a load test may take beyond its duration before it is considered hung.
+     */
+    private static final long GRACE_SECONDS = 60;
+
+    private static final String[] COLUMNS = {"claimsPerSecond", "points", "p50", "p99", "max", "utilization"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        String[] engines = {"Threads", "Actor"};
+        String[] players = {"10", "100", "1000"};
+        double durationSeconds = 30;
+        List<String> loadTestArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (i == 0 && !args[i].contains("=")) {
+                loadTestArgs.add(args[i]);
+                continue;
+            }
+            int equals = args[i].indexOf('=');
+            if (equals <= 0) throw new IllegalArgumentException("expected Key=Value: " + args[i]);
+            String key = args[i].substring(0, equals).trim();
+            String value = args[i].substring(equals + 1).trim();
+            if (key.equals("Engines")) engines = value.split("\\s*,\\s*");
+            else if (key.equals("Players")) players = value.split("\\s*,\\s*");
+            else {
+                if (key.equals("DurationSeconds")) durationSeconds = Double.parseDouble(value);
+                loadTestArgs.add(key + "=" + value);
+            }
+        }
+
+        System.out.printf("%-8s %8s", "engine", "players");
+        for (String column : COLUMNS) System.out.printf(" %15s", column);
+        System.out.println();
+        for (String count : players) {
+            for (String engine : engines) {
+                List<String> command = new ArrayList<>();
+                command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(LoadTest.class.getName());
+                command.addAll(loadTestArgs);
+                command.add("DealerEngine=" + engine);
+                command.add("ComputerPlayers=" + count);
+                String report = run(command, (long) durationSeconds + GRACE_SECONDS);
+
+                System.out.printf("%-8s %8s", engine, count);
+                for (String column : COLUMNS) System.out.printf(" %15s", report == null ? "-" : field(report, column));
+                System.out.println(report == null ? " (hung or failed)" : "");
+            }
+        }
+    }
+
+    /**
+     * Runs a load test.
+     *
+     * @return - the report of the load test (null if it failed or did not finish in time).
+     */
+    private static String run(List<String> command, long timeoutSeconds) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        // the report is a single line of JSON, written when the load test ends
+        String[] line = new String[1];
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String next; (next = in.readLine()) != null; )
+                    if (next.startsWith("{")) line[0] = next;
+            } catch (IOException ignored) {
+            }
+        }, "benchmark-reader");
+        reader.setDaemon(true);
+        reader.start();
+        if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            return null;
+        }
+        reader.join();
+        return process.exitValue() == 0 ? line[0] : null;
+    }
+
+    /**
+     * @return - the first value of a field in a report (the latency percentiles come first, before the locks').
+     */
+    private static String field(String report, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":([^,}]+)").matcher(report);
+        return matcher.find() ? matcher.group(1) : "-";
+    }
+}
@@ -0,0 +1,133 @@
+package bguspl.set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.Arrays;
+
+/**
+ * Java Flight Recorder events of the game's lifecycle, so that a recording shows the game next to the GC and CPU
+ * data. An event costs a (scalar replaced) allocation and a flag check when its recording is disabled.
+ * Instant events are emitted through the static methods, and timed events are begun and committed at the call site.
+ */
+public final class GameEvents {
+
+    private GameEvents() {}
+
+    @Name("bguspl.set.ClaimSubmitted")
+    @Label("Claim Submitted")
+    @Category("Set Game")
+    @Description("A player sent a set to the dealer")
+    public static class ClaimSubmitted extends Event {
+        @Label("Player")
+        public int player;
+
+        @Label("Cards")
+        public String cards;
+    }
+
+    @Name("bguspl.set.ClaimVerified")
+    @Label("Claim Verified")
+    @Category("Set Game")
+    @Description("The dealer checked a set sent by a player (the duration includes updating the table)")
+    public static class ClaimVerified extends Event {
+        @Label("Player")
+        public int player;
+
+        @Label("Cards")
+        public String cards;
+
+        @Label("Legal Set")
+        public boolean legal;
+    }
+
+    @Name("bguspl.set.CardPlaced")
+    @Label("Card Placed")
+    @Category("Set Game")
+    public static class CardPlaced extends Event {
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.CardRemoved")
+    @Label("Card Removed")
+    @Category("Set Game")
+    public static class CardRemoved extends Event {
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Category("Set Game")
+    @Description("The dealer returned all the cards on the table to the deck")
+    public static class Reshuffle extends Event {
+        @Label("Cards Returned")
+        public int cards;
+
+        @Label("Deck Size")
+        public int deckSize;
+    }
+
+    @Name("bguspl.set.Freeze")
+    @Label("Freeze")
+    @Category("Set Game")
+    @Description("A player was frozen after a point or a penalty (the duration is the freeze)")
+    public static class Freeze extends Event {
+        @Label("Player")
+        public int player;
+
+        @Label("Penalty")
+        public boolean penalty;
+    }
+
+    @Name("bguspl.set.DealerWakeup")
+    @Label("Dealer Wakeup")
+    @Category("Set Game")
+    @Description("The dealer woke up to check sets or update the countdown (the duration is the sleep)")
+    public static class DealerWakeup extends Event {
+        @Label("Pending Claims")
+        public int pendingClaims;
+    }
+
+    public static void claimSubmitted(int player, int[] cards) {
+        ClaimSubmitted event = new ClaimSubmitted();
+        if (!event.shouldCommit()) return;
+        event.player = player;
+        event.cards = Arrays.toString(cards);
+        event.commit();
+    }
+
+    public static void cardPlaced(int card, int slot) {
+        CardPlaced event = new CardPlaced();
+        if (!event.shouldCommit()) return;
+        event.card = card;
+        event.slot = slot;
+        event.commit();
+    }
+
+    public static void cardRemoved(int card, int slot) {
+        CardRemoved event = new CardRemoved();
+        if (!event.shouldCommit()) return;
+        event.card = card;
+        event.slot = slot;
+        event.commit();
+    }
+
+    public static void reshuffle(int cards, int deckSize) {
+        Reshuffle event = new Reshuffle();
+        if (!event.shouldCommit()) return;
+        event.cards = cards;
+        event.deckSize = deckSize;
+        event.commit();
+    }
+}
@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non negative values (e.g. latencies in nanoseconds), cheap to record from many threads.
+ * Values are counted in log-linear buckets: every power of two is split into 8 buckets, so percentiles are accurate
+ * to within 12.5% over the whole range of long. Every bucket is a LongAdder, created when it is first hit (values
+ * usually fall in a few dozen buckets), so threads recording the same value do not contend.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value - the value to record (negative values are recorded as 0).
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counter(bucket(value)).increment();
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Adds all the values recorded by another histogram to this one.
+     *
+     * @param other - the histogram to add.
+     */
+    public void add(Histogram other) {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long bucketCount = other.count(bucket);
+            if (bucketCount > 0) counter(bucket).add(bucketCount);
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * @return - the number of values recorded.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return - the sum of the values recorded.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return - the mean of the values recorded (0 if none).
+     */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return - the largest value recorded (0 if none).
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile of the values recorded.
+     *
+     * @param percentile - the percentile, between 0 and 100.
+     * @return - the upper bound of the bucket holding the percentile (0 if no values were recorded).
+     */
+    public long percentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += count(bucket);
+            if (seen >= rank) return Math.min(max.get(), upperBound(bucket));
+        }
+        return max.get();
+    }
+
+    private LongAdder counter(int bucket) {
+        LongAdder counter = counts.get(bucket);
+        if (counter != null) return counter;
+        counts.compareAndSet(bucket, null, new LongAdder());
+        return counts.get(bucket);
+    }
+
+    private long count(int bucket) {
+        LongAdder counter = counts.get(bucket);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long bound = (SUB_BUCKETS + subBucket) * width + width - 1;
+        return bound < 0 ? Long.MAX_VALUE : bound; // the last bucket ends at Long.MAX_VALUE
+    }
+}
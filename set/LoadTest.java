@@ -0,0 +1,220 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Load test runner: plays a headless game with many computer players for a fixed time and reports how the dealer,
+ * table and players hold up as a single line of JSON.
+ * Usage: LoadTest [config file] [Key=Value...], where the keys are config properties (e.g. ComputerPlayers=2000,
+ * ComputerPressesPerSecond=50, ClaimValidators=4, DealerEngine=Actor, LockProfiling=True) or DurationSeconds
+ * (default 30) and Output (a file to write the report to instead of the standard output).
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        Properties properties = new Properties();
+        int first = 0;
+        if (args.length > 0 && !args[0].contains("=")) {
+            try (InputStream is = Files.newInputStream(Paths.get(args[0]))) {
+                properties.load(is);
+            }
+            first = 1;
+        }
+        // defaults of a load test, overridden by the arguments
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("TableDelaySeconds", "0");
+        properties.setProperty("LogLevel", "OFF");
+        for (int i = first; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            if (equals <= 0) throw new IllegalArgumentException("expected Key=Value: " + args[i]);
+            properties.setProperty(args[i].substring(0, equals).trim(), args[i].substring(equals + 1).trim());
+        }
+        long durationMillis = (long) (Double.parseDouble(properties.getProperty("DurationSeconds", "30")) * 1000.0);
+
+        Logger logger = Logger.getLogger("SetGameLoadTestLogger");
+        logger.setUseParentHandlers(false);
+        Config config = new Config(logger, properties);
+        Util util = config.packedSets ? new PackedUtilImpl(config) : new UtilImpl(config);
+        Env env = new Env(logger, config, new UserInterfaceDecorator(logger, util, null), util);
+
+        Table table = new Table(env);
+        Player[] players = new Player[config.players];
+        Dealer dealer = Dealer.of(env, table, players);
+        for (int i = 0; i < players.length; i++)
+            players[i] = new Player(env, dealer, table, i, false);
+
+        // a crashed thread is reported instead of ending the test
+        AtomicInteger crashedThreads = new AtomicInteger();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+            crashedThreads.incrementAndGet();
+            System.err.println("thread " + thread.getName() + " crashed: " + e);
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isThreadContentionMonitoringSupported()) threads.setThreadContentionMonitoringEnabled(true);
+        long startCpuNanos = processCpuNanos();
+        long startNanos = System.nanoTime();
+
+        Thread dealerThread = new Thread(dealer, "dealer");
+        dealerThread.start();
+        dealerThread.join(durationMillis);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        boolean gameOver = !dealerThread.isAlive();
+
+        // sample the threads before they terminate
+        Contention dealerContention = new Contention();
+        Contention playerContention = new Contention();
+        Contention computerContention = new Contention();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info == null) continue;
+            String name = info.getThreadName();
+            if (name.equals("dealer")) dealerContention.add(info);
+            else if (name.startsWith("Player")) playerContention.add(info);
+            else if (name.startsWith("computer-")) computerContention.add(info);
+        }
+        long cpuNanos = processCpuNanos() - startCpuNanos;
+
+        dealer.terminate();
+        dealerThread.join();
+        for (Player player : players) // in case the dealer crashed before terminating them
+            if (player.playerThread != null && player.playerThread.isAlive()) player.terminate();
+
+        long claims = 0, points = 0;
+        for (Player player : players) {
+            claims += env.metrics.claimsSubmitted[player.id].sum();
+            points += player.score();
+        }
+        Histogram verdictLatency = env.metrics.verdictLatency;
+        double seconds = elapsedNanos / 1e9;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        StringBuilder report = new StringBuilder("{");
+        field(report, "players", config.players);
+        field(report, "pressesPerSecond", config.computerPressesPerSecond);
+        field(report, "pressBufferSize", config.pressBufferSize);
+        field(report, "pressOverflow", '"' + config.pressOverflow + '"');
+        field(report, "packedSets", config.packedSets);
+        field(report, "claimValidators", config.claimValidators);
+        field(report, "dealerEngine", '"' + config.dealerEngine + '"');
+        field(report, "durationSeconds", seconds);
+        field(report, "gameOver", gameOver);
+        field(report, "claims", claims);
+        field(report, "claimsPerSecond", claims / seconds);
+        field(report, "points", points);
+        field(report, "verdicts", verdictLatency.count());
+        report.append("\"verdictLatencyMillis\":{");
+        field(report, "mean", verdictLatency.mean() / 1e6);
+        field(report, "p50", verdictLatency.percentile(50) / 1e6);
+        field(report, "p90", verdictLatency.percentile(90) / 1e6);
+        field(report, "p99", verdictLatency.percentile(99) / 1e6);
+        field(report, "p999", verdictLatency.percentile(99.9) / 1e6);
+        field(report, "max", verdictLatency.max() / 1e6);
+        close(report);
+        Histogram pressToToken = new Histogram();
+        for (Histogram player : env.metrics.pressToToken) pressToToken.add(player);
+        report.append("\"pressToTokenMillis\":{");
+        field(report, "p50", pressToToken.percentile(50) / 1e6);
+        field(report, "p99", pressToToken.percentile(99) / 1e6);
+        field(report, "max", pressToToken.max() / 1e6);
+        close(report);
+        field(report, "droppedPresses", env.metrics.pressesDropped.sum());
+        field(report, "crashedThreads", crashedThreads.get());
+        report.append("\"contention\":{");
+        dealerContention.appendTo(report, "dealer");
+        playerContention.appendTo(report, "players");
+        computerContention.appendTo(report, "computers");
+        close(report);
+        report.append("\"locks\":{");
+        for (ProfiledLock.Stats lock : ProfiledLock.stats().values()) {
+            report.append('"').append(lock.name).append("\":{");
+            field(report, "acquisitions", lock.acquisitions.sum());
+            field(report, "contended", lock.contended.sum());
+            field(report, "waitP50Millis", lock.waitNanos.percentile(50) / 1e6);
+            field(report, "waitP99Millis", lock.waitNanos.percentile(99) / 1e6);
+            field(report, "waitMaxMillis", lock.waitNanos.max() / 1e6);
+            field(report, "holdP50Millis", lock.holdNanos.percentile(50) / 1e6);
+            field(report, "holdP99Millis", lock.holdNanos.percentile(99) / 1e6);
+            field(report, "holdMaxMillis", lock.holdNanos.max() / 1e6);
+            close(report);
+        }
+        if (report.charAt(report.length() - 1) == '{') report.append("},");
+        else close(report);
+        report.append("\"cpu\":{");
+        field(report, "processors", processors);
+        field(report, "seconds", cpuNanos / 1e9);
+        field(report, "utilization", cpuNanos < 0 ? -1 : cpuNanos / (double) elapsedNanos / processors);
+        close(report);
+        close(report);
+        report.setLength(report.length() - 1); // the comma after the report
+
+        String output = properties.getProperty("Output");
+        if (output == null) System.out.println(report);
+        else try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(output)))) {
+            out.println(report);
+        }
+    }
+
+    /**
+     * The time the threads of a kind spent blocked on monitors (lock contention) or waiting.
+     */
+    private static class Contention {
+        private int threads;
+        private long blockedCount;
+        private long blockedMillis;
+        private long waitedCount;
+        private long waitedMillis;
+
+        private void add(ThreadInfo info) {
+            threads++;
+            blockedCount += info.getBlockedCount();
+            blockedMillis += Math.max(0, info.getBlockedTime());
+            waitedCount += info.getWaitedCount();
+            waitedMillis += Math.max(0, info.getWaitedTime());
+        }
+
+        private void appendTo(StringBuilder report, String name) {
+            report.append('"').append(name).append("\":{");
+            field(report, "threads", threads);
+            field(report, "blockedCount", blockedCount);
+            field(report, "blockedMillis", blockedMillis);
+            field(report, "waitedCount", waitedCount);
+            field(report, "waitedMillis", waitedMillis);
+            close(report);
+        }
+    }
+
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    private static void field(StringBuilder report, String name, Object value) {
+        String text = value instanceof Double ? String.format(Locale.ROOT, "%.3f", (Double) value) : String.valueOf(value);
+        report.append('"').append(name).append("\":").append(text).append(',');
+    }
+
+    private static void close(StringBuilder report) {
+        report.setCharAt(report.length() - 1, '}');
+        report.append(',');
+    }
+}
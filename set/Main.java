@@ -7,9 +7,11 @@ import bguspl.set.ex.Table;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.*;
 
 /**
@@ -43,25 +45,51 @@ public class Main {
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
         Config config = new Config(logger, "config.properties");
-        Util util = new UtilImpl(config);
+        Util util = config.packedSets ? new PackedUtilImpl(config) : new UtilImpl(config);
 
         Player[] players = new Player[config.players];
-        UserInterface ui = null;
+        List<UserInterface> sinks = new ArrayList<>();
         try {
-            ui = new UserInterfaceSwing(logger, config, players);
+            sinks.add(new UserInterfaceSwing(logger, config, util, players));
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
+        if (config.spectatorPort > 0) {
+            try {
+                sinks.add(new UserInterfaceWebSocket(logger, config, config.spectatorPort, config.spectatorBufferBytes));
+            } catch (IOException e) {
+                logger.severe("error creating spectator server: " + e.getMessage());
+            }
+        }
+        if (config.remotePlayersPort > 0) {
+            try {
+                sinks.add(new RemotePlayerServer(logger, config, players, config.remotePlayersPort, config.spectatorBufferBytes));
+            } catch (IOException e) {
+                logger.severe("error creating remote players server: " + e.getMessage());
+            }
+        }
+
+        // every user interface gets its own queue and thread, so none of them can slow down the game
+        UserInterface ui = sinks.isEmpty() ? null
+                : new UserInterfaceMultiplexer(logger, config, sinks.toArray(new UserInterface[0]));
         ui = new UserInterfaceDecorator(logger, util, ui);
 
         Env env = new Env(logger, config, ui, util);
+        MetricsServer metricsServer = null;
+        if (config.metricsPort > 0) {
+            try {
+                metricsServer = new MetricsServer(logger, env.metrics, config.metricsPort);
+            } catch (IOException e) {
+                logger.severe("error creating metrics server: " + e.getMessage());
+            }
+        }
 
         // create the game entities
         Table table = new Table(env);
-        dealer = new Dealer(env, table, players);
+        dealer = Dealer.of(env, table, players);
         for (int i = 0; i < players.length; i++)
             players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
 
@@ -80,6 +108,7 @@ public class Main {
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
             if (!xButtonPressed) env.ui.dispose();
+            if (metricsServer != null) metricsServer.stop();
             for (Handler h : logger.getHandlers()) h.flush();
         }
     }
@@ -0,0 +1,205 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process registry of the game's metrics, exported in the Prometheus text format (see MetricsServer).
+ * Counters are striped (LongAdder) and histograms lock free, so the game threads never contend on an increment;
+ * the cost of summing them is paid by the exporter.
+ */
+public class Metrics {
+
+    /**
+     * A counter that is cheap to increment from many threads.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * A registered metric: either counters or histograms (one per label value, or a single one with no label).
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String label;
+        private final Counter[] counters;
+        private final Histogram[] histograms;
+        private final double scale;
+
+        private Family(String name, String help, String label, Counter[] counters, Histogram[] histograms, double scale) {
+            this.name = name;
+            this.help = help;
+            this.label = label;
+            this.counters = counters;
+            this.histograms = histograms;
+            this.scale = scale;
+        }
+
+        private String labels(int i) {
+            return label == null ? null : label + "=\"" + i + "\"";
+        }
+    }
+
+    private final List<Family> families = new ArrayList<>();
+
+    /**
+     * Sets sent to the dealer, accepted as legal, rejected, and too late (their cards were claimed first by another
+     * player), per player.
+     */
+    public final Counter[] claimsSubmitted;
+    public final Counter[] claimsAccepted;
+    public final Counter[] claimsRejected;
+    public final Counter[] claimsTooLate;
+
+    /**
+     * Key presses queued to the players, and dropped because the queue was full.
+     */
+    public final Counter pressesAccepted;
+    public final Counter pressesDropped;
+
+    public final Counter reshuffles;
+    public final Counter cardsDealt;
+    public final Counter dealerLoops;
+
+    /**
+     * The time (in nanoseconds) from sending a set to the dealer until the player is woken up with the verdict.
+     */
+    public final Histogram verdictLatency;
+
+    /**
+     * The time (in nanoseconds) from a key press until its token is on the table, per player.
+     */
+    public final Histogram[] pressToToken;
+
+    /**
+     * @param players - the number of players in the game.
+     */
+    public Metrics(int players) {
+        claimsSubmitted = counters("set_claims_submitted_total", "Sets sent to the dealer.", "player", players);
+        claimsAccepted = counters("set_claims_accepted_total", "Sets the dealer found legal.", "player", players);
+        claimsRejected = counters("set_claims_rejected_total", "Sets the dealer found illegal.", "player", players);
+        claimsTooLate = counters("set_claims_too_late_total", "Sets claimed after another player claimed their cards.", "player", players);
+        pressesAccepted = counter("set_key_presses_accepted_total", "Key presses queued to the players.");
+        pressesDropped = counter("set_key_presses_dropped_total", "Key presses dropped because the player's buffer was full.");
+        reshuffles = counter("set_reshuffles_total", "Times the dealer returned the table to the deck.");
+        cardsDealt = counter("set_cards_dealt_total", "Cards dealt from the deck to the table.");
+        dealerLoops = counter("set_dealer_loop_iterations_total", "Iterations of the dealer's timer loop.");
+        verdictLatency = histogram("set_claim_verdict_seconds", "Time from sending a set until the verdict.", 1e-9);
+        pressToToken = histograms("set_press_to_token_seconds", "Time from a key press until its token is on the table.",
+                "player", players, 1e-9);
+    }
+
+    /**
+     * Registers a counter.
+     *
+     * @param name - the metric name.
+     * @param help - the metric description.
+     * @return - the counter.
+     */
+    public synchronized Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        families.add(new Family(name, help, null, new Counter[]{counter}, null, 1));
+        return counter;
+    }
+
+    /**
+     * Registers a counter per value of a label (e.g. a counter per player).
+     *
+     * @param name  - the metric name.
+     * @param help  - the metric description.
+     * @param label - the label name, whose values are 0 to count - 1.
+     * @param count - the number of label values.
+     * @return - the counters, indexed by label value.
+     */
+    public synchronized Counter[] counters(String name, String help, String label, int count) {
+        Counter[] counters = new Counter[count];
+        for (int i = 0; i < count; i++) counters[i] = new Counter();
+        families.add(new Family(name, help, label, counters, null, 1));
+        return counters;
+    }
+
+    /**
+     * Registers a histogram, exported as a summary of its quantiles.
+     *
+     * @param name  - the metric name.
+     * @param help  - the metric description.
+     * @param scale - the factor converting the recorded values to the exported unit (e.g. 1e-9 for nanoseconds).
+     * @return - the histogram.
+     */
+    public synchronized Histogram histogram(String name, String help, double scale) {
+        Histogram histogram = new Histogram();
+        families.add(new Family(name, help, null, null, new Histogram[]{histogram}, scale));
+        return histogram;
+    }
+
+    /**
+     * Registers a histogram per value of a label (e.g. a histogram per player), exported as summaries.
+     *
+     * @param name  - the metric name.
+     * @param help  - the metric description.
+     * @param label - the label name, whose values are 0 to count - 1.
+     * @param count - the number of label values.
+     * @param scale - the factor converting the recorded values to the exported unit (e.g. 1e-9 for nanoseconds).
+     * @return - the histograms, indexed by label value.
+     */
+    public synchronized Histogram[] histograms(String name, String help, String label, int count, double scale) {
+        Histogram[] histograms = new Histogram[count];
+        for (int i = 0; i < count; i++) histograms[i] = new Histogram();
+        families.add(new Family(name, help, label, null, histograms, scale));
+        return histograms;
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format.
+     *
+     * @param out - the output.
+     */
+    public synchronized void writePrometheus(StringBuilder out) {
+        for (Family family : families) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            if (family.histograms != null) {
+                out.append("# TYPE ").append(family.name).append(" summary\n");
+                for (int i = 0; i < family.histograms.length; i++) {
+                    Histogram histogram = family.histograms[i];
+                    String labels = family.labels(i);
+                    for (double quantile : QUANTILES)
+                        sample(out, family.name, (labels == null ? "" : labels + ",") + "quantile=\"" + quantile + "\"",
+                                histogram.percentile(quantile * 100) * family.scale);
+                    sample(out, family.name + "_sum", labels, histogram.sum() * family.scale);
+                    sample(out, family.name + "_count", labels, histogram.count());
+                }
+            } else {
+                out.append("# TYPE ").append(family.name).append(" counter\n");
+                for (int i = 0; i < family.counters.length; i++)
+                    sample(out, family.name, family.labels(i), family.counters[i].sum());
+            }
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double sample) {
+        out.append(name);
+        if (labels != null) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (sample == Math.rint(sample) && Math.abs(sample) < 1e15) out.append((long) sample);
+        else out.append(String.format(Locale.ROOT, "%.9g", sample));
+        out.append('\n');
+    }
+}
@@ -0,0 +1,135 @@
+package bguspl.set;
+
+import java.util.Arrays;
+
+/**
+ * A Util implementation that tests sets on packed feature lanes (SIMD within a register).
+ * Each card is encoded as a single long: one lane of featureSize bits per feature, holding the one-hot value of that
+ * feature. A group of featureSize cards is a legal set iff in every lane the OR of the cards is either equal to the
+ * first card (all same) or full (all different), so a whole candidate is tested with a handful of bitwise operations.
+ * Decks whose features do not fit in 64 bits fall back to the scalar implementation.
+ */
+public class PackedUtilImpl extends UtilImpl {
+
+    private final Config config;
+
+    /**
+     * True iff featureCount * featureSize lanes fit in a long.
+     */
+    private final boolean packed;
+
+    /**
+     * All lanes full (every feature value present).
+     */
+    private final long full;
+
+    /**
+     * The top bit of every lane.
+     */
+    private final long high;
+
+    /**
+     * The bits below the top bit of every lane.
+     */
+    private final long low;
+
+    /**
+     * The packed code of every card in the deck (null if not packed).
+     */
+    private final long[] codes;
+
+    public PackedUtilImpl(Config config) {
+        super(config);
+        this.config = config;
+        int bits = config.featureCount * config.featureSize;
+        packed = config.featureSize > 1 && bits <= Long.SIZE;
+
+        long h = 0;
+        for (int i = 0; packed && i < config.featureCount; ++i)
+            h |= 1L << (i * config.featureSize + config.featureSize - 1);
+        full = bits == Long.SIZE ? -1L : (1L << bits) - 1;
+        high = h;
+        low = full & ~h;
+
+        if (packed) {
+            codes = new long[config.deckSize];
+            for (int card = 0; card < config.deckSize; ++card)
+                codes[card] = encode(card);
+        } else codes = null;
+    }
+
+    private long encode(int card) {
+        long code = 0;
+        int[] features = cardToFeatures(card);
+        for (int i = 0; i < features.length; ++i)
+            code |= 1L << (i * config.featureSize + features[i]);
+        return code;
+    }
+
+    /**
+     * Marks the top bit of every lane that has any bit set.
+     */
+    private long nonZeroLanes(long x) {
+        return (((x & low) + low) | x) & high;
+    }
+
+    /**
+     * Tests a candidate given the OR of its packed codes and the code of one of its cards.
+     */
+    private boolean testPacked(long or, long first) {
+        return (nonZeroLanes(or ^ first) & nonZeroLanes(or ^ full)) == 0;
+    }
+
+    @Override
+    public boolean testSet(int[] cards) {
+        if (!packed || cards.length != config.featureSize) return super.testSet(cards);
+        long or = 0;
+        for (int card : cards) or |= codes[card];
+        return testPacked(or, codes[cards[0]]);
+    }
+
+    @Override
+    public void forEachSet(int[] deck, int size, SetVisitor visitor) {
+        if (!packed) {
+            super.forEachSet(deck, size, visitor);
+            return;
+        }
+
+        int n = size;
+        int r = config.featureSize;
+        if (n < r) return;
+
+        long[] lanes = new long[n];
+        for (int i = 0; i < n; ++i)
+            lanes[i] = codes[deck[i]];
+
+        // walk the combinations in lexicographic order, keeping the OR of every prefix so that each candidate
+        // costs a single OR and the lane test
+        int[] combination = new int[r];
+        int[] set = new int[r];
+        long[] prefix = new long[r + 1];
+        int depth = 0;
+        combination[0] = 0;
+        while (depth >= 0) {
+            if (combination[depth] > n - r + depth) {
+                if (--depth >= 0) ++combination[depth];
+                continue;
+            }
+            prefix[depth + 1] = prefix[depth] | lanes[combination[depth]];
+            if (depth < r - 1) {
+                ++depth;
+                combination[depth] = combination[depth - 1] + 1;
+                continue;
+            }
+            for (int last = combination[depth]; last < n; ++last) {
+                if (testPacked(prefix[depth] | lanes[last], lanes[depth == 0 ? last : combination[0]])) {
+                    combination[depth] = last;
+                    for (int i = 0; i < r; ++i) set[i] = deck[combination[i]];
+                    Arrays.sort(set);
+                    if (!visitor.visit(set)) return;
+                }
+            }
+            combination[depth] = n;
+        }
+    }
+}
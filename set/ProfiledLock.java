@@ -0,0 +1,271 @@
+package bguspl.set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A reentrant lock that can profile its contention, used in place of the game's hot monitors.
+ * When profiling is on, every outermost acquisition records the time spent waiting for the lock and the time it was
+ * held (excluding the time spent awaiting its conditions) in the statistics of the lock's name, and emits the
+ * bguspl.set.LockWait (if it had to wait) and bguspl.set.LockHold JFR events. Locks of the same kind (e.g. the lock
+ * of every player) share one name, so the statistics stay small with thousands of players. When profiling is off,
+ * it is a plain ReentrantLock.
+ */
+public class ProfiledLock extends ReentrantLock {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * The statistics of the lock (null if profiling is off).
+     */
+    private final Stats stats;
+
+    /**
+     * The time the lock was acquired (or reacquired after awaiting a condition), owned by the lock holder.
+     */
+    private long acquiredNanos;
+
+    /**
+     * The contention statistics of all the locks sharing a name.
+     */
+    public static final class Stats {
+        public final String name;
+        public final LongAdder acquisitions = new LongAdder();
+        public final LongAdder contended = new LongAdder();
+        public final Histogram waitNanos = new Histogram();
+        public final Histogram holdNanos = new Histogram();
+
+        private Stats(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param name      - the name of the lock (the statistics of locks with the same name are combined).
+     * @param profiling - true iff the lock should profile its contention.
+     */
+    public ProfiledLock(String name, boolean profiling) {
+        stats = profiling ? STATS.computeIfAbsent(name, Stats::new) : null;
+    }
+
+    /**
+     * @return - the statistics of every profiled lock name, sorted by name.
+     */
+    public static Map<String, Stats> stats() {
+        return Collections.unmodifiableMap(new TreeMap<>(STATS));
+    }
+
+    /**
+     * @return - the name of the thread holding the lock (null if none).
+     */
+    public String owner() {
+        Thread owner = getOwner();
+        return owner == null ? null : owner.getName();
+    }
+
+    @Override
+    public void lock() {
+        if (stats == null || isHeldByCurrentThread()) {
+            super.lock();
+            return;
+        }
+        long startNanos = System.nanoTime();
+        if (super.tryLock()) {
+            acquired(startNanos, startNanos, null);
+            return;
+        }
+        Thread blocker = getOwner();
+        super.lock();
+        acquired(startNanos, System.nanoTime(), blocker);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (stats == null || isHeldByCurrentThread()) {
+            super.lockInterruptibly();
+            return;
+        }
+        long startNanos = System.nanoTime();
+        if (super.tryLock()) {
+            acquired(startNanos, startNanos, null);
+            return;
+        }
+        Thread blocker = getOwner();
+        super.lockInterruptibly();
+        acquired(startNanos, System.nanoTime(), blocker);
+    }
+
+    @Override
+    public boolean tryLock() {
+        boolean outermost = stats != null && !isHeldByCurrentThread();
+        if (!super.tryLock()) return false;
+        if (outermost) {
+            long now = System.nanoTime();
+            acquired(now, now, null);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        if (stats == null || isHeldByCurrentThread()) return super.tryLock(timeout, unit);
+        long startNanos = System.nanoTime();
+        Thread blocker = getOwner();
+        if (!super.tryLock(timeout, unit)) return false;
+        long now = System.nanoTime();
+        acquired(startNanos, now, now == startNanos ? null : blocker);
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        if (stats != null && getHoldCount() == 1) released();
+        super.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        Condition condition = super.newCondition();
+        return stats == null ? condition : new ProfiledCondition(condition);
+    }
+
+    private void acquired(long startNanos, long acquiredNanos, Thread blocker) {
+        this.acquiredNanos = acquiredNanos;
+        long waited = acquiredNanos - startNanos;
+        stats.acquisitions.increment();
+        if (blocker == null && waited == 0) return;
+        stats.contended.increment();
+        stats.waitNanos.record(waited);
+        LockWait event = new LockWait();
+        if (event.isEnabled()) {
+            event.lock = stats.name;
+            event.waited = waited;
+            event.blocker = blocker == null ? null : blocker.getName();
+            event.commit();
+        }
+    }
+
+    private void released() {
+        long held = System.nanoTime() - acquiredNanos;
+        stats.holdNanos.record(held);
+        LockHold event = new LockHold();
+        if (event.isEnabled()) {
+            event.lock = stats.name;
+            event.held = held;
+            event.commit();
+        }
+    }
+
+    /**
+     * Stops the hold time while the lock is released by awaiting a condition.
+     */
+    private class ProfiledCondition implements Condition {
+        private final Condition condition;
+
+        private ProfiledCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            released();
+            try {
+                condition.await();
+            } finally {
+                acquiredNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            released();
+            condition.awaitUninterruptibly();
+            acquiredNanos = System.nanoTime();
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            released();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                acquiredNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            released();
+            try {
+                return condition.await(time, unit);
+            } finally {
+                acquiredNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            released();
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                acquiredNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void signal() {
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            condition.signalAll();
+        }
+    }
+
+    @Name("bguspl.set.LockWait")
+    @Label("Lock Wait")
+    @Category({"Set Game", "Locks"})
+    @Description("A thread waited to acquire a profiled lock")
+    static class LockWait extends Event {
+        @Label("Lock")
+        String lock;
+
+        @Label("Waited")
+        @Timespan
+        long waited;
+
+        @Label("Blocking Thread")
+        String blocker;
+    }
+
+    @Name("bguspl.set.LockHold")
+    @Label("Lock Hold")
+    @Category({"Set Game", "Locks"})
+    @Description("A thread released a profiled lock")
+    static class LockHold extends Event {
+        @Label("Lock")
+        String lock;
+
+        @Label("Held")
+        @Timespan
+        long held;
+    }
+}
@@ -0,0 +1,114 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Input gateway for players connecting over TCP (i.e. remote human players).
+ * Messages in both directions are delta frames (see DeltaFrames) prefixed by their length as an unsigned short. A
+ * client first sends a join frame with the id of a human player that is not taken yet, then press frames with the
+ * slots it presses, which are handed to Player.keyPressed. In return it receives a snapshot of the table followed by
+ * every table, token, score and timer delta. A single selector thread serves all the connections.
+ */
+public class RemotePlayerServer extends DeltaServer {
+
+    private static final int HEADER_BYTES = 2;
+
+    private final Player[] players;
+
+    /**
+     * The connection controlling each player (null if none), owned by the selector thread.
+     */
+    private final Connection[] owners;
+
+    /**
+     * The player each connection controls.
+     */
+    private final Map<Connection, Integer> joined = new HashMap<>();
+
+    /**
+     * Starts listening for remote players.
+     *
+     * @param logger          - the logger.
+     * @param config          - the game configuration.
+     * @param players         - the players (may be filled in after the server starts, before players join).
+     * @param port            - the TCP port to listen on.
+     * @param maxPendingBytes - the number of bytes a connection may fall behind before it is disconnected.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public RemotePlayerServer(Logger logger, Config config, Player[] players, int port, int maxPendingBytes) throws IOException {
+        super(logger, config, port, maxPendingBytes, "remote-players-server");
+        this.players = players;
+        this.owners = new Connection[config.players];
+    }
+
+    @Override
+    protected ByteBuffer wrap(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + frame.length);
+        buffer.putShort((short) frame.length).put(frame).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    protected void received(SelectionKey key, Connection connection) {
+        ByteBuffer input = connection.input;
+        input.flip();
+        while (input.remaining() >= HEADER_BYTES) {
+            int length = input.getShort(input.position()) & 0xFFFF;
+            if (input.remaining() < HEADER_BYTES + length) break;
+            byte[] frame = new byte[length];
+            input.position(input.position() + HEADER_BYTES);
+            input.get(frame);
+            if (!handle(key, connection, frame)) {
+                close(key);
+                return;
+            }
+        }
+        input.compact();
+    }
+
+    /**
+     * Handles a frame from a remote player.
+     *
+     * @return - false iff the frame is invalid and the connection should be closed.
+     */
+    private boolean handle(SelectionKey key, Connection connection, byte[] frame) {
+        if (frame.length == 0) return false;
+        int[] position = {1};
+        long value = DeltaFrames.readVarLong(frame, position);
+        Integer player = joined.get(connection);
+
+        if (frame[0] == DeltaFrames.JOIN) {
+            if (player != null || value < 0 || value >= config.humanPlayers || owners[(int) value] != null) {
+                logger.severe("remote join refused for player " + (value + 1));
+                return false;
+            }
+            owners[(int) value] = connection;
+            joined.put(connection, (int) value);
+            open(key);
+            logger.info("remote player " + (value + 1) + " joined from " + connection.channel.socket().getRemoteSocketAddress());
+            return true;
+        }
+        if (frame[0] == DeltaFrames.PRESS) {
+            if (player == null || value < 0 || value >= config.maxTableSize) return false;
+            players[player].keyPressed((int) value);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void closed(Connection connection) {
+        Integer player = joined.remove(connection);
+        if (player != null) {
+            owners[player] = null;
+            logger.info("remote player " + (player + 1) + " left");
+        }
+    }
+}
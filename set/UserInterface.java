@@ -18,6 +18,12 @@ public interface UserInterface {
      */
     void removeCard(int slot);
 
+    /**
+     * Show the specified number of slots on the table grid, adding rows for extra cards or removing them.
+     * @param slots - the number of slots in use (between tableSize and maxTableSize).
+     */
+    void resizeTable(int slots);
+
     /**
      * Draw a player name text in the specified slot.
      * @param player - the card id.
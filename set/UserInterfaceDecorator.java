@@ -16,7 +16,7 @@ public class UserInterfaceDecorator implements UserInterface {
         this.logger = logger;
         this.util = util;
 
-        if (ui == null) System.out.println("running without a user interface. Check logs.");
+        if (ui == null) System.err.println("running without a user interface. Check logs.");
     }
 
     @Override
@@ -33,6 +33,13 @@ public class UserInterfaceDecorator implements UserInterface {
         if (ui != null) ui.removeCard(slot);
     }
 
+    @Override
+    public void resizeTable(int slots) {
+        logger.severe("resizing table to " + slots + " slots");
+        util.spin();
+        if (ui != null) ui.resizeTable(slots);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         logger.severe("player " + (player + 1) + " placing token on slot " + slot);
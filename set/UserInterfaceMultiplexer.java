@@ -0,0 +1,231 @@
+package bguspl.set;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A user interface that forwards every call to several user interfaces (e.g. the Swing window and spectators).
+ * Every sink has its own bounded queue and worker thread, so the caller only enqueues the call and a slow sink (a
+ * stalled viewer, a full disk) never delays the game or the other sinks. The multiplexer keeps a copy of what is
+ * shown (cards, tokens, scores, freezes, countdown, winners): when a sink's queue is full, its backlog is dropped and
+ * replaced by a single call that brings it to the current state, so a sink that falls behind skips ahead instead of
+ * showing a wrong table or holding an unbounded backlog.
+ */
+public class UserInterfaceMultiplexer implements UserInterface {
+
+    /**
+     * The number of milliseconds to wait for each sink to process its queue when disposing.
+     */
+    private static final long DISPOSE_TIMEOUT_MILLIS = 1000;
+
+    private final Logger logger;
+    private final Sink[] sinks;
+
+    /**
+     * What is shown, as of the last call dispatched. Guarded by this.
+     */
+    private final int[] slotToCard;
+    private final long[] tokens; // a bit per player, in playerWords words per slot
+    private final int playerWords;
+    private final int[] scores;
+    private final long[] freezes;
+    private int slots = -1; // -1 until the table is resized
+    private long countdown = -1; // -1 while the elapsed time is shown
+    private boolean warn;
+    private long elapsed = -1; // -1 while the countdown is shown
+    private int[] winners;
+
+    private static class Sink {
+        private final Logger logger;
+        private final UserInterface ui;
+        private final BlockingQueue<Consumer<UserInterface>> queue;
+        private final Thread worker;
+        private final AtomicLong resyncs = new AtomicLong();
+
+        private Sink(Logger logger, UserInterface ui, int capacity, String name) {
+            this.logger = logger;
+            this.ui = ui;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.worker = new Thread(this::run, name);
+            this.worker.setDaemon(true);
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    Consumer<UserInterface> call = queue.take();
+                    try {
+                        call.accept(ui);
+                    } catch (RuntimeException e) { // a failed call must not stop the calls after it
+                        logger.log(Level.SEVERE, "user interface " + ui.getClass().getSimpleName() + " failed", e);
+                    }
+                    if (call == DISPOSE) return;
+                }
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private static final Consumer<UserInterface> DISPOSE = UserInterface::dispose;
+
+    /**
+     * @param logger - the logger used to report resynchronized and failed sinks.
+     * @param config - the game configuration (the queue capacity of each sink is Config.uiQueueSize).
+     * @param sinks  - the user interfaces to forward to.
+     */
+    public UserInterfaceMultiplexer(Logger logger, Config config, UserInterface... sinks) {
+        this.logger = logger;
+        slotToCard = new int[config.maxTableSize];
+        Arrays.fill(slotToCard, -1);
+        playerWords = (config.players + Long.SIZE - 1) / Long.SIZE;
+        tokens = new long[config.maxTableSize * playerWords];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        this.sinks = new Sink[sinks.length];
+        for (int i = 0; i < sinks.length; i++) {
+            String name = "ui-sink-" + sinks[i].getClass().getSimpleName();
+            this.sinks[i] = new Sink(logger, sinks[i], config.uiQueueSize, name);
+            this.sinks[i].worker.start();
+        }
+    }
+
+    /**
+     * Queues a call to every sink, resynchronizing the sinks whose queue is full. Called with this held, after the
+     * call was applied to the copy of what is shown.
+     */
+    private void dispatch(Consumer<UserInterface> call) {
+        Consumer<UserInterface> resync = null;
+        for (Sink sink : sinks) {
+            if (sink.queue.offer(call)) continue;
+            if (resync == null) resync = resync();
+            sink.queue.clear();
+            sink.queue.offer(resync);
+            if (sink.resyncs.getAndIncrement() % 100 == 0)
+                logger.severe("user interface " + sink.ui.getClass().getSimpleName() + " is behind, resynchronized "
+                        + sink.resyncs.get() + " times so far");
+        }
+    }
+
+    /**
+     * @return - a call that brings a user interface from any state to the one shown now.
+     */
+    private Consumer<UserInterface> resync() {
+        int slots = this.slots;
+        int[] slotToCard = this.slotToCard.clone();
+        long[] tokens = this.tokens.clone();
+        int[] scores = this.scores.clone();
+        long[] freezes = this.freezes.clone();
+        long countdown = this.countdown;
+        boolean warn = this.warn;
+        long elapsed = this.elapsed;
+        int[] winners = this.winners;
+        return ui -> {
+            if (slots >= 0) ui.resizeTable(slots);
+            ui.removeTokens();
+            for (int slot = 0; slot < slotToCard.length; slot++) {
+                if (slotToCard[slot] >= 0) ui.placeCard(slotToCard[slot], slot);
+                else ui.removeCard(slot);
+                for (int word = 0; word < playerWords; word++)
+                    for (long bits = tokens[slot * playerWords + word]; bits != 0; bits &= bits - 1)
+                        ui.placeToken(word * Long.SIZE + Long.numberOfTrailingZeros(bits), slot);
+            }
+            for (int player = 0; player < scores.length; player++) {
+                ui.setScore(player, scores[player]);
+                ui.setFreeze(player, freezes[player]);
+            }
+            if (countdown >= 0) ui.setCountdown(countdown, warn);
+            if (elapsed >= 0) ui.setElapsed(elapsed);
+            if (winners != null) ui.announceWinner(winners);
+        };
+    }
+
+    @Override
+    public synchronized void placeCard(int card, int slot) {
+        slotToCard[slot] = card;
+        dispatch(ui -> ui.placeCard(card, slot));
+    }
+
+    @Override
+    public synchronized void removeCard(int slot) {
+        slotToCard[slot] = -1;
+        dispatch(ui -> ui.removeCard(slot));
+    }
+
+    @Override
+    public synchronized void resizeTable(int slots) {
+        this.slots = slots;
+        dispatch(ui -> ui.resizeTable(slots));
+    }
+
+    @Override
+    public synchronized void placeToken(int player, int slot) {
+        tokens[slot * playerWords + player / Long.SIZE] |= 1L << player;
+        dispatch(ui -> ui.placeToken(player, slot));
+    }
+
+    @Override
+    public synchronized void removeTokens() {
+        Arrays.fill(tokens, 0);
+        dispatch(ui -> ui.removeTokens());
+    }
+
+    @Override
+    public synchronized void removeTokens(int slot) {
+        Arrays.fill(tokens, slot * playerWords, (slot + 1) * playerWords, 0);
+        dispatch(ui -> ui.removeTokens(slot));
+    }
+
+    @Override
+    public synchronized void removeToken(int player, int slot) {
+        tokens[slot * playerWords + player / Long.SIZE] &= ~(1L << player);
+        dispatch(ui -> ui.removeToken(player, slot));
+    }
+
+    @Override
+    public synchronized void setCountdown(long millies, boolean warn) {
+        countdown = millies;
+        this.warn = warn;
+        elapsed = -1;
+        dispatch(ui -> ui.setCountdown(millies, warn));
+    }
+
+    @Override
+    public synchronized void setElapsed(long millies) {
+        elapsed = millies;
+        countdown = -1;
+        dispatch(ui -> ui.setElapsed(millies));
+    }
+
+    @Override
+    public synchronized void setFreeze(int player, long millies) {
+        freezes[player] = millies;
+        dispatch(ui -> ui.setFreeze(player, millies));
+    }
+
+    @Override
+    public synchronized void setScore(int player, int score) {
+        scores[player] = score;
+        dispatch(ui -> ui.setScore(player, score));
+    }
+
+    @Override
+    public synchronized void announceWinner(int[] players) {
+        winners = players;
+        dispatch(ui -> ui.announceWinner(players));
+    }
+
+    @Override
+    public void dispose() {
+        for (Sink sink : sinks) {
+            try {
+                if (!sink.queue.offer(DISPOSE, DISPOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) sink.worker.interrupt();
+                sink.worker.join(DISPOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+}
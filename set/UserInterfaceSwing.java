@@ -4,10 +4,13 @@ import bguspl.set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.FileNotFoundException;
-import java.net.URL;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -28,11 +31,11 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
-    public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+    public UserInterfaceSwing(Logger logger, Config config, Util util, Player[] players) {
 
         this.config = config;
         timerPanel = new TimerPanel();
-        gamePanel = new GamePanel();
+        gamePanel = new GamePanel(logger, util);
         playersPanel = new PlayersPanel();
         winnerPanel = new WinnerPanel();
 
@@ -102,39 +105,67 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class GamePanel extends JLayeredPane {
 
-        private final Image emptyCard;
-        private final Image[] deck;
-        private final Image[][] grid;
-        private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
-
-        private Image loadImageResource(String filename) {
-            URL imageResource = getClass().getClassLoader().getResource(filename);
-            if (imageResource == null)
-                throw new RuntimeException(new FileNotFoundException(filename));
-            return new ImageIcon(imageResource).getImage();
-        }
+        private final CardImages images;
+        private final int[][] grid; // card id per cell (-1 if empty)
 
-        private GamePanel() {
+        /**
+         * The slots whose cell in the back buffer needs to be redrawn (guarded by itself).
+         */
+        private final boolean[] dirty = new boolean[config.maxTableSize];
 
-            setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
+        /**
+         * The cards are drawn into this image, a change to a slot repaints only the bounds of its cell.
+         */
+        private final BufferedImage backBuffer;
 
-            // init deck and load all pictures from png files
-            assert config.featureSize < 10; // otherwise there will be naming conflicts
-
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
-            emptyCard = loadImageResource("cards/empty_card.png");
+        private final Runnable repaintOnLoad = this::invalidateAll;
+        private final JLabel[][] tokenText;
 
-            grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
-            playerTokens = new boolean[config.players][config.rows][config.columns];
-            for (int row = 0; row < config.rows; row++) {
+        /**
+         * The players having a token on each slot, as a bitmask of words (player p is bit p % 64 of word p / 64 of
+         * the slot's words).
+         */
+        private final AtomicLongArray tokenMasks;
+        private final int maskWords;
+
+        /**
+         * The token text for each bitmask seen so far (used when all players fit in a single word).
+         */
+        private final Map<Long, String> tokenTextCache = new ConcurrentHashMap<>();
+        private static final int TOKEN_TEXT_CACHE_SIZE = 4096;
+
+        /**
+         * The number of grid rows allocated (enough for maxTableSize slots).
+         */
+        private final int maxRows;
+
+        /**
+         * The number of slots currently shown.
+         */
+        private int slots;
+
+        private GamePanel(Logger logger, Util util) {
+
+            maxRows = (config.maxTableSize + config.columns - 1) / config.columns;
+            slots = config.tableSize;
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, rowsInUse() * config.cellHeight));
+            backBuffer = new BufferedImage(config.columns * config.cellWidth, maxRows * config.cellHeight, BufferedImage.TYPE_INT_ARGB);
+            Arrays.fill(dirty, true);
+
+            // the card images are decoded in the background (repaint whenever one becomes ready), decks without image
+            // files are drawn from the card features
+            CardRenderer renderer = new CardRenderer(config, util);
+            images = config.proceduralCards || !CardAtlas.hasImages(config) ? renderer : CardAtlas.of(logger, config, renderer);
+            images.addListener(repaintOnLoad);
+
+            grid = new int[maxRows][config.columns];
+            tokenText = new JLabel[maxRows][config.columns];
+            maskWords = (config.players + Long.SIZE - 1) / Long.SIZE;
+            tokenMasks = new AtomicLongArray(config.maxTableSize * maskWords);
+            for (int row = 0; row < maxRows; row++) {
                 for (int column = 0; column < config.columns; column++) {
                     // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
+                    grid[row][column] = -1;
 
                     // init the JLabel selection overlay
                     tokenText[row][column] = new JLabel("");
@@ -143,72 +174,127 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
                     tokenText[row][column].setOpaque(false);
                     tokenText[row][column].setBorder(BorderFactory.createLineBorder(Color.black));
                     tokenText[row][column].setBounds((column * config.cellWidth), (row * config.cellHeight), config.cellWidth, config.cellHeight);
+                    tokenText[row][column].setVisible(row * config.columns + column < slots);
                     add(tokenText[row][column]);
                 }
             }
         }
 
-        private void placeCard(int slot, int card) {
+        private int rowsInUse() {
+            return (slots + config.columns - 1) / config.columns;
+        }
+
+        private void resizeTable(int slots) {
+            this.slots = slots;
+            for (int row = 0; row < maxRows; row++)
+                for (int column = 0; column < config.columns; column++)
+                    tokenText[row][column].setVisible(row * config.columns + column < slots);
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, rowsInUse() * config.cellHeight));
+            revalidate();
+            invalidateAll();
+        }
+
+        /**
+         * Marks a slot to be redrawn and repaints the bounds of its cell only.
+         */
+        private void invalidateSlot(int slot) {
+            synchronized (dirty) {
+                dirty[slot] = true;
+            }
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
+            repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
+        }
+
+        private void invalidateAll() {
+            synchronized (dirty) {
+                Arrays.fill(dirty, true);
+            }
             repaint();
         }
 
-        private void removeCard(int slot) {
+        private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            grid[row][column] = card;
+            invalidateSlot(slot);
         }
 
-        private void placeToken(int player, int slot) {
+        private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            grid[row][column] = -1;
+            invalidateSlot(slot);
+        }
+
+        private void placeToken(int player, int slot) {
+            int word = slot * maskWords + player / Long.SIZE;
+            long bit = 1L << (player % Long.SIZE);
+            if ((tokenMasks.getAndUpdate(word, mask -> mask | bit) & bit) == 0)
+                updateTokenText(slot);
         }
 
         private void removeTokens() {
-            for (int i = 0; i < config.tableSize; i++)
+            for (int i = 0; i < config.maxTableSize; i++)
                 removeTokens(i);
         }
 
         private void removeTokens(int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
-                playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            boolean removed = false;
+            for (int word = slot * maskWords; word < (slot + 1) * maskWords; word++)
+                removed |= tokenMasks.getAndSet(word, 0) != 0;
+            if (removed)
+                updateTokenText(slot);
         }
 
         private void removeToken(int player, int slot) {
-            int row = slot / config.columns;
-            int column = slot % config.columns;
-            playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            int word = slot * maskWords + player / Long.SIZE;
+            long bit = 1L << (player % Long.SIZE);
+            if ((tokenMasks.getAndUpdate(word, mask -> mask & ~bit) & bit) != 0)
+                updateTokenText(slot);
         }
 
-        private String generatePlayersTokenText(int row, int column) {
-            String text = "";
-            for (int player = 0; player < config.players; player++) {
-                if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+        private void updateTokenText(int slot) {
+            String text;
+            if (maskWords == 1) {
+                if (tokenTextCache.size() > TOKEN_TEXT_CACHE_SIZE) tokenTextCache.clear();
+                text = tokenTextCache.computeIfAbsent(tokenMasks.get(slot), mask -> generatePlayersTokenText(mask));
+            } else {
+                long[] masks = new long[maskWords];
+                for (int word = 0; word < maskWords; word++)
+                    masks[word] = tokenMasks.get(slot * maskWords + word);
+                text = generatePlayersTokenText(masks);
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            tokenText[slot / config.columns][slot % config.columns].setText(text);
+        }
+
+        private String generatePlayersTokenText(long... masks) {
+            StringJoiner text = new StringJoiner(", ");
+            for (int word = 0; word < masks.length; word++)
+                for (long mask = masks[word]; mask != 0; mask &= mask - 1)
+                    text.add(config.playerNames[word * Long.SIZE + Long.numberOfTrailingZeros(mask)]);
+            return text.toString();
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            // redraw the changed cells into the back buffer, then copy it (Swing clips the copy to the repainted bounds)
+            Graphics2D buffer = backBuffer.createGraphics();
+            buffer.setBackground(new Color(0, 0, 0, 0));
+            synchronized (dirty) {
+                for (int slot = 0; slot < dirty.length; slot++) {
+                    if (!dirty[slot]) continue;
+                    dirty[slot] = false;
+                    int row = slot / config.columns;
+                    int column = slot % config.columns;
+                    int card = grid[row][column];
+                    buffer.clearRect(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
+                    if (slot < slots)
+                        buffer.drawImage(card < 0 ? images.emptyCard() : images.card(card), column * config.cellWidth, row * config.cellHeight, this);
+                }
+            }
+            buffer.dispose();
+            g.drawImage(backBuffer, 0, 0, this);
         }
     }
 
@@ -284,6 +370,14 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         gamePanel.removeCard(slot);
     }
 
+    @Override
+    public void resizeTable(int slots) {
+        EventQueue.invokeLater(() -> {
+            gamePanel.resizeTable(slots);
+            pack();
+        });
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         gamePanel.placeToken(player, slot);
@@ -333,6 +427,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void dispose() {
+        gamePanel.images.removeListener(gamePanel.repaintOnLoad);
         super.dispose();
     }
 }
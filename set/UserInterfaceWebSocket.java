@@ -0,0 +1,84 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.logging.Logger;
+
+/**
+ * Spectator implementation of the UserInterface interface: broadcasts the game as binary delta frames over WebSocket.
+ * A single selector thread serves all the viewers. Every viewer has its own send queue, and a viewer that falls more
+ * than maxPendingBytes behind is disconnected, so a slow viewer never holds back the game or the other viewers.
+ */
+public class UserInterfaceWebSocket extends DeltaServer {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /**
+     * Starts listening for viewers.
+     *
+     * @param logger          - the logger.
+     * @param config          - the game configuration.
+     * @param port            - the TCP port to listen on.
+     * @param maxPendingBytes - the number of bytes a viewer may fall behind before it is disconnected.
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public UserInterfaceWebSocket(Logger logger, Config config, int port, int maxPendingBytes) throws IOException {
+        super(logger, config, port, maxPendingBytes, "spectator-server");
+    }
+
+    /**
+     * Wraps a payload in an unmasked binary WebSocket frame.
+     */
+    @Override
+    protected ByteBuffer wrap(byte[] payload) {
+        int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+        ByteBuffer buffer = ByteBuffer.allocate(header + payload.length);
+        buffer.put((byte) 0x82);
+        if (payload.length < 126) buffer.put((byte) payload.length);
+        else if (payload.length < 65536) buffer.put((byte) 126).putShort((short) payload.length);
+        else buffer.put((byte) 127).putLong(payload.length);
+        buffer.put(payload).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    @Override
+    protected void received(SelectionKey key, Connection viewer) {
+        if (viewer.isOpen()) {
+            viewer.input.clear(); // frames from viewers are ignored
+            return;
+        }
+        String request = new String(viewer.input.array(), 0, viewer.input.position(), StandardCharsets.ISO_8859_1);
+        if (!request.contains("\r\n\r\n")) return; // wait for the rest of the handshake
+
+        String accept = null;
+        for (String line : request.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key"))
+                accept = acceptKey(line.substring(colon + 1).trim());
+        }
+        if (accept == null) {
+            send(key, ByteBuffer.wrap("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+            close(key);
+            return;
+        }
+
+        send(key, ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        open(key);
+        logger.info("spectator connected: " + viewer.channel.socket().getRemoteSocketAddress());
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -40,6 +40,31 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Streams the legal sets in the first size cards of the given array to the visitor, in the same order as findSets,
+     * without building a list of results.
+     *
+     * @param cards   - an array of card ids (only the first size entries are used).
+     * @param size    - the number of cards to search in.
+     * @param visitor - receives each set found, and decides whether to keep searching.
+     */
+    void forEachSet(int[] cards, int size, SetVisitor visitor);
+
+    /**
+     * A callback for the sets streamed by forEachSet.
+     */
+    @FunctionalInterface
+    interface SetVisitor {
+
+        /**
+         * Called for every legal set found.
+         *
+         * @param set - the card ids of the set, sorted. The array is reused between calls, so copy it to keep it.
+         * @return - true to continue searching, false to stop.
+         */
+        boolean visit(int[] set);
+    }
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
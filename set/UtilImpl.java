@@ -67,19 +67,30 @@ public class UtilImpl implements Util {
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
+        if (count <= 0) return sets;
+        int[] cards = deck.stream().mapToInt(Integer::intValue).toArray();
+        forEachSet(cards, cards.length, set -> {
+            sets.add(set.clone());
+            return sets.size() < count;
+        });
+        return sets;
+    }
+
+    @Override
+    public void forEachSet(int[] deck, int size, SetVisitor visitor) {
+        int n = size;
         int r = config.featureSize;
         int[] combination = new int[r];
+        int[] cards = new int[r];
 
         for (int i = 0; i < r; ++i)
             combination[i] = i;
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
-                if (sets.size() >= count) return sets;
-            }
+        while (combination[r - 1] < n) {
+            for (int i = 0; i < r; ++i)
+                cards[i] = deck[combination[i]];
+            Arrays.sort(cards);
+            if (testSet(cards) && !visitor.visit(cards)) return;
 
             // generate next combination in lexicographic order
             int t = r - 1;
@@ -87,7 +98,6 @@ public class UtilImpl implements Util {
             combination[t]++;
             for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
         }
-        return sets;
     }
 
     public void spin() {
@@ -0,0 +1,184 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+import bguspl.set.GameEvents;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The dealer as an actor (DealerEngine=Actor): a single threaded event loop that owns the table, the players' tokens,
+ * scores and freezes. Players and input sources only post their key presses to its lock free mailbox, and a set is
+ * checked the moment its last token is placed, so sets are never queued, never too late, and the presses take no
+ * locks on their way to the table. Dealing, reshuffling and the end of the game are the same as the thread engine's.
+ */
+public class ActorDealer extends Dealer {
+
+    /**
+     * Posted to wake the dealer up (e.g. when the game terminates).
+     */
+    private static final Press WAKE_UP = new Press(-1, -1, 0);
+
+    private final LinkedTransferQueue<Press> mailbox = new LinkedTransferQueue<>();
+
+    /**
+     * The presses of each player in the mailbox, at most pressBufferSize (the mailbox is shared, so a full buffer
+     * always drops the new press).
+     */
+    private final AtomicIntegerArray pending;
+
+    /**
+     * The time each player's freeze ends (0 if the player is not frozen), and the earliest of them.
+     */
+    private final long[] frozenUntil;
+    private long nextUnfreeze = Long.MAX_VALUE;
+
+    public ActorDealer(Env env, Table table, Player[] players) {
+        super(env, table, players);
+        pending = new AtomicIntegerArray(players.length);
+        frozenUntil = new long[players.length];
+    }
+
+    /**
+     * Posts a key press to the mailbox. Called by the player's input (keyboard, remote player or AI) thread right after
+     * the press is stamped, so the mailbox is in the order of the presses.
+     *
+     * @return - true iff the press was posted (false if the player's presses in the mailbox are at pressBufferSize).
+     */
+    boolean keyPressed(Press press) {
+        if (pending.incrementAndGet(press.player) > env.config.pressBufferSize) {
+            pending.decrementAndGet(press.player);
+            env.metrics.pressesDropped.increment();
+            return false;
+        }
+        mailbox.offer(press);
+        return true;
+    }
+
+    /**
+     * Handles the presses in the mailbox as they arrive, and updates the countdown and the freezes in between, until
+     * the countdown times out or there is no set left on the table.
+     */
+    @Override
+    void timerLoop() throws InterruptedException {
+        env.ui.setCountdown(env.config.turnTimeoutMillis, false);
+        long counter = env.config.turnTimeoutMillis;
+        long nextSecond = System.currentTimeMillis() + 1000;
+        while (!terminate && counter >= 0 && tableHasSet) {
+            env.metrics.dealerLoops.increment();
+            long wait = Math.min(nextSecond, nextUnfreeze) - System.currentTimeMillis();
+            Press press = mailbox.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+            if (press != null && press.player >= 0 && handle(press)) {
+                counter = env.config.turnTimeoutMillis;
+                updateTimerDisplay(true, counter);
+                nextSecond = System.currentTimeMillis() + 1000;
+            }
+            long now = System.currentTimeMillis();
+            if (now >= nextUnfreeze) unfreeze(now);
+            if (now >= nextSecond) {
+                counter -= 1000;
+                nextSecond = now + 1000;
+                updateTimerDisplay(false, counter);
+                for (int player = 0; player < players.length; player++)
+                    if (frozenUntil[player] != 0) env.ui.setFreeze(player, frozenUntil[player] - now);
+            }
+        }
+    }
+
+    /**
+     * Places or removes the token of a press, and checks the set once the player has featureSize tokens.
+     *
+     * @return - true iff the press completed a legal set.
+     */
+    private boolean handle(Press press) {
+        int player = press.player;
+        int slot = press.slot;
+        Player p = players[player];
+        pending.decrementAndGet(player);
+        if (frozenUntil[player] != 0) return false;
+        if (p.hasToken(slot)) {
+            table.removeToken(player, slot);
+            p.clearToken(slot);
+            return false;
+        }
+        if (p.tokenCount() == env.config.featureSize || table.slotToCard[slot] == null) return false;
+        table.placeToken(player, slot);
+        env.metrics.pressToToken[player].record(System.nanoTime() - press.pressedNanos);
+        p.addToken(slot);
+        return p.tokenCount() == env.config.featureSize && checkSet(player, p.tokenSlots());
+    }
+
+    /**
+     * Checks the set a player has tokens on, and collects it (dealing new cards) if it is legal. The verdict latency
+     * is measured from here, once the last token is placed, as the thread engine measures it from sending the set.
+     *
+     * @return - true iff the set is legal.
+     */
+    private boolean checkSet(int player, int[] slots) {
+        long sentNanos = System.nanoTime();
+        int[] cards = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) cards[i] = table.slotToCard[slots[i]];
+        env.metrics.claimsSubmitted[player].increment();
+        GameEvents.claimSubmitted(player, cards);
+        GameEvents.ClaimVerified event = new GameEvents.ClaimVerified();
+        event.begin();
+
+        boolean legal = env.util.testSet(cards);
+        if (legal) {
+            env.metrics.claimsAccepted[player].increment();
+            removeCardsFromTable(cards);
+            placeCardsOnTable();
+        } else {
+            env.metrics.claimsRejected[player].increment();
+            env.logger.info("Dealer found wrong set");
+        }
+        long freezeMillis = legal ? env.config.pointFreezeMillis : env.config.penaltyFreezeMillis;
+        players[player].verdict(legal, freezeMillis > 0);
+        if (freezeMillis > 0) {
+            frozenUntil[player] = System.currentTimeMillis() + freezeMillis;
+            nextUnfreeze = Math.min(nextUnfreeze, frozenUntil[player]);
+            env.ui.setFreeze(player, freezeMillis);
+        }
+        env.metrics.verdictLatency.record(System.nanoTime() - sentNanos);
+
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.cards = Arrays.toString(cards);
+            event.legal = legal;
+            event.commit();
+        }
+        return legal;
+    }
+
+    /**
+     * Ends the freezes that are over.
+     */
+    private void unfreeze(long now) {
+        nextUnfreeze = Long.MAX_VALUE;
+        for (int player = 0; player < players.length; player++) {
+            if (frozenUntil[player] == 0) continue;
+            if (frozenUntil[player] <= now) {
+                frozenUntil[player] = 0;
+                players[player].unfreeze();
+                env.ui.setFreeze(player, 0);
+            } else nextUnfreeze = Math.min(nextUnfreeze, frozenUntil[player]);
+        }
+    }
+
+    /**
+     * Drops the presses in the mailbox: they were meant for the cards that were just returned to the deck.
+     */
+    @Override
+    void removePlayersPresses() {
+        for (Press press; (press = mailbox.poll()) != null; )
+            if (press.player >= 0) pending.decrementAndGet(press.player);
+    }
+
+    @Override
+    public synchronized void terminate() {
+        super.terminate();
+        mailbox.offer(WAKE_UP);
+    }
+}
@@ -0,0 +1,42 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Random;
+
+/**
+ * Decides which slots a computer player presses. The AI thread of the player calls play in a loop until the game
+ * terminates, and the strategy presses slots through Player.keyPressed.
+ */
+public interface AiStrategy {
+
+    /**
+     * Makes the next move(s) of the player (e.g. a single press, or the slots of a whole set). Should return within a
+     * few seconds, so the AI thread notices when the game terminates.
+     *
+     * @throws InterruptedException - if the AI thread was interrupted (i.e. the game terminates).
+     */
+    void play() throws InterruptedException;
+
+    /**
+     * Creates the strategy configured for computer players (see Config.computerStrategy). Every strategy draws from
+     * its own generator seeded by Config.playerSeed, so the decisions of a player can be reproduced.
+     *
+     * @param env    - the game environment object.
+     * @param table  - the table object.
+     * @param player - the computer player.
+     * @return - the strategy of the player.
+     */
+    static AiStrategy of(Env env, Table table, Player player) {
+        Random random = new Random(env.config.playerSeed(player.id));
+        switch (env.config.computerStrategy) {
+            case "solver":
+                return new SolverStrategy(env, table, player, random, env.config.playerSkill(player.id));
+            case "random":
+                return new RandomStrategy(env, table, player, random);
+            default:
+                env.logger.severe("unknown computer strategy " + env.config.computerStrategy + ", using random");
+                return new RandomStrategy(env, table, player, random);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A pool of card ids backed by a primitive array with a live count.
+ * Cards are drawn at random by swapping the chosen card with the last live one, so draws and returns are O(1) and the
+ * pool never needs to be shuffled.
+ *
+ * @inv 0 <= size <= cards.length
+ * @inv positions[cards[i]] == i for every 0 <= i < size
+ */
+public class CardPool {
+
+    /**
+     * The card ids in the pool (only the first size entries are live).
+     */
+    private final int[] cards;
+
+    /**
+     * Mapping between a card id and its index in cards (-1 if not in the pool).
+     */
+    private final int[] positions;
+
+    /**
+     * The number of cards in the pool.
+     */
+    private int size;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param deckSize - the number of distinct card ids (0 to deckSize - 1).
+     */
+    public CardPool(int deckSize) {
+        cards = new int[deckSize];
+        positions = new int[deckSize];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Creates a pool holding every card id of the deck.
+     *
+     * @param deckSize - the number of distinct card ids (0 to deckSize - 1).
+     * @return - the full pool.
+     */
+    public static CardPool full(int deckSize) {
+        CardPool pool = new CardPool(deckSize);
+        for (int card = 0; card < deckSize; ++card)
+            pool.add(card);
+        return pool;
+    }
+
+    /**
+     * @return - the number of cards in the pool.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int card) {
+        return positions[card] >= 0;
+    }
+
+    /**
+     * Returns a card to the pool.
+     *
+     * @param card - the card id.
+     * @pre - the card is not in the pool.
+     */
+    public void add(int card) {
+        positions[card] = size;
+        cards[size++] = card;
+    }
+
+    /**
+     * Removes a random card from the pool.
+     *
+     * @return - the card id drawn.
+     * @pre - the pool is not empty.
+     */
+    public int draw() {
+        int card = cards[ThreadLocalRandom.current().nextInt(size)];
+        remove(card);
+        return card;
+    }
+
+    /**
+     * Removes a specific card from the pool.
+     *
+     * @param card - the card id.
+     * @return - true iff the card was in the pool.
+     */
+    public boolean remove(int card) {
+        int index = positions[card];
+        if (index < 0) return false;
+        int last = cards[--size];
+        cards[index] = last;
+        positions[last] = index;
+        positions[card] = -1;
+        return true;
+    }
+
+    /**
+     * A view of the pool for read only queries (e.g. Util.forEachSet). Only the first size() entries are live and the
+     * view is invalidated by any change to the pool.
+     *
+     * @return - the backing array.
+     */
+    public int[] cards() {
+        return cards;
+    }
+}
@@ -0,0 +1,110 @@
+package bguspl.set.ex;
+
+import bguspl.set.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A set sent by a player to the dealer for checking.
+ */
+public class Claim {
+
+    /**
+     * The id of the player claiming the set.
+     */
+    public final int player;
+
+    /**
+     * The cards claimed, in the order of their slots.
+     */
+    public final int[] cards;
+
+    /**
+     * The cards claimed in canonical form (sorted, in base deckSize), so that claims on the same cards have the same
+     * key whatever the order of the presses (-1 if the deck is too large for the key to fit in a long).
+     */
+    final long key;
+
+    /**
+     * The version of the table (see Table.version) when the cards were read, so a validator can tell that they are
+     * still on the table without looking at it.
+     */
+    final long tableVersion;
+
+    /**
+     * The time (System.nanoTime) of the key press that completed the set. Claims on the same cards are arbitrated by
+     * it rather than by the order they reach the dealer (see Config.arbitrationWindowMillis).
+     */
+    final long pressedNanos;
+
+    /**
+     * Completed by the validator (see Config.claimValidators): true iff the set is legal and its cards were still on
+     * the table, so the dealer should commit it.
+     */
+    final CompletableFuture<Boolean> validated = new CompletableFuture<>();
+
+    /**
+     * Set once the player is given the verdict, so a claim is answered exactly once by the dealer or a validator.
+     */
+    private final AtomicBoolean resolved = new AtomicBoolean();
+
+    /**
+     * Whether the cards are a legal set, once the dealer has tested them (null until then). Owned by the dealer.
+     */
+    private Boolean legal;
+
+    Claim(int player, int[] cards, int deckSize, long tableVersion, long pressedNanos) {
+        this.player = player;
+        this.cards = cards;
+        this.key = key(cards, deckSize);
+        this.tableVersion = tableVersion;
+        this.pressedNanos = pressedNanos;
+    }
+
+    private static long key(int[] cards, int deckSize) {
+        int[] sorted = cards.clone();
+        Arrays.sort(sorted);
+        long key = 0;
+        for (int card : sorted) {
+            if (key > (Long.MAX_VALUE - card) / deckSize) return -1;
+            key = key * deckSize + card;
+        }
+        return key;
+    }
+
+    /**
+     * @return - true iff the claim shares a card with the given cards.
+     */
+    boolean overlaps(int[] cards) {
+        for (int card : this.cards)
+            for (int other : cards)
+                if (card == other) return true;
+        return false;
+    }
+
+    /**
+     * Tests the set once, however many times the dealer looks at the claim while arbitrating.
+     *
+     * @return - true iff the cards are a legal set.
+     */
+    boolean legal(Util util) {
+        if (legal == null) legal = util.testSet(cards);
+        return legal;
+    }
+
+    /**
+     * @return - true iff the verdict of the claim was given.
+     */
+    boolean resolved() {
+        return resolved.get();
+    }
+
+    /**
+     * @return - true iff the verdict of the claim was not given yet (and it is now up to the caller to give it).
+     */
+    boolean resolve() {
+        return resolved.compareAndSet(false, true);
+    }
+}
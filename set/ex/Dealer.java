@@ -1,13 +1,14 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class manages the dealer's threads and data
@@ -18,18 +19,39 @@ public class Dealer implements Runnable {
     /**
      * The game environment object.
      */
-    private final Env env;
+    final Env env;
 
     /**
      * Game entities.
      */
-    private final Table table;
-    private final Player[] players;
+    final Table table;
+    final Player[] players;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
      */
-    public final List<Integer> deck; //change to private later
+    private final CardPool deck;
+
+    /**
+     * Used to check that the cards dealt contain a legal set.
+     */
+    private final SetIndex setIndex;
+
+    /**
+     * The threads validating the players' claims, sharded by claim key so that claims on the same cards are validated
+     * in order (null if the dealer validates the claims itself, see Config.claimValidators).
+     */
+    private final ExecutorService[] validators;
+
+    /**
+     * How long to wait for sets pressed earlier than the first set queued (see Config.arbitrationWindowMillis).
+     */
+    private final long arbitrationWindowNanos;
+
+    /**
+     * True iff the cards currently on the table contain a legal set.
+     */
+    boolean tableHasSet = true;
 
     /**
      * True iff game should be terminated due to an external event.
@@ -43,11 +65,42 @@ public class Dealer implements Runnable {
 
     private long lastUpdateTime = 0;
 
+    /**
+     * Creates the dealer of the configured engine (see Config.dealerEngine).
+     *
+     * @param env     - the game environment object.
+     * @param table   - the table object.
+     * @param players - the players (created after the dealer, with it).
+     * @return - the dealer.
+     */
+    public static Dealer of(Env env, Table table, Player[] players) {
+        switch (env.config.dealerEngine) {
+            case "actor":
+                return new ActorDealer(env, table, players);
+            case "threads":
+                return new Dealer(env, table, players);
+            default:
+                env.logger.severe("unknown dealer engine " + env.config.dealerEngine + ", using threads");
+                return new Dealer(env, table, players);
+        }
+    }
+
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
+        deck = CardPool.full(env.config.deckSize);
+        setIndex = new SetIndex(env);
+        arbitrationWindowNanos = TimeUnit.MILLISECONDS.toNanos(env.config.arbitrationWindowMillis);
+        validators = env.config.claimValidators > 0 ? new ExecutorService[env.config.claimValidators] : null;
+        for (int i = 0; validators != null && i < validators.length; i++) {
+            String name = "validator-" + i;
+            validators[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     /**
@@ -72,6 +125,8 @@ public class Dealer implements Runnable {
         }
         announceWinners();
         closePlayersThreads();
+        if (validators != null)
+            for (ExecutorService validator : validators) validator.shutdownNow();
         env.logger.info("Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
@@ -95,13 +150,20 @@ public class Dealer implements Runnable {
     /**
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
-    private void timerLoop() throws InterruptedException {
+    void timerLoop() throws InterruptedException {
         reshuffleTime = System.currentTimeMillis();
         lastUpdateTime = System.currentTimeMillis();
         this.env.ui.setCountdown(env.config.turnTimeoutMillis, false);
         long counter = env.config.turnTimeoutMillis;
-        while (!terminate && counter >= 0) {
+        while (!terminate && counter >= 0 && tableHasSet) {
+            env.metrics.dealerLoops.increment();
+            GameEvents.DealerWakeup wakeup = new GameEvents.DealerWakeup();
+            wakeup.begin();
             sleepUntilWokenOrTimeout();
+            if (wakeup.shouldCommit()) {
+                wakeup.pendingClaims = table.setsToCheck.size();
+                wakeup.commit();
+            }
             env.logger.info("thread-"+Thread.currentThread()+" woke up (Dealer)");
             long curr = System.currentTimeMillis();
             boolean foundSet=false;
@@ -110,7 +172,7 @@ public class Dealer implements Runnable {
                 lastUpdateTime = System.currentTimeMillis();
                 updateTimerDisplay(false, counter);
             }
-            while (!table.setsToCheck.isEmpty()) {
+            while (!terminate && !table.setsToCheck.isEmpty()) {
                 foundSet=checkSet();
                 if (foundSet) {
                     updateTimerDisplay(true, env.config.turnTimeoutMillis);
@@ -130,79 +192,138 @@ public class Dealer implements Runnable {
      * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
      */
     private void sleepUntilWokenOrTimeout() throws InterruptedException {
-        synchronized (table.setsToCheck) {
+        table.setsToCheckLock.lockInterruptibly();
+        try {
             while (table.setsToCheck.isEmpty() && System.currentTimeMillis() - lastUpdateTime < 950)
-                table.setsToCheck.wait(950);
+                table.setAdded.await(950, TimeUnit.MILLISECONDS);
+        } finally {
+            table.setsToCheckLock.unlock();
         }
     }
 
     private void sleepUntilWokenOrTimeout2() throws InterruptedException {
-        synchronized (table.setsToCheck) {
+        table.setsToCheckLock.lockInterruptibly();
+        try {
             while (table.setsToCheck.isEmpty() && System.currentTimeMillis() - lastUpdateTime < 950)
-                table.setsToCheck.wait(950);
+                table.setAdded.await(950, TimeUnit.MILLISECONDS);
+        } finally {
+            table.setsToCheckLock.unlock();
         }
     }
 
-    boolean checkSet() {
+    boolean checkSet() throws InterruptedException {
 
             //System.out.println("dealer entered checkSet"); //debug
             boolean isSet;
-            int[][] setToCheck;
+            Claim setToCheck;
+            GameEvents.ClaimVerified event = new GameEvents.ClaimVerified();
+            event.begin();
 
-            synchronized (table.setsToCheck) {
-                setToCheck = table.setsToCheck.remove(); //setToCheck supposed to be thread safe
+            // with validators, only commit here: wait (outside the lock) for the next claim to be validated, so the
+            // claims are committed in order
+            Claim next = nextClaim();
+            if (next == null) return false; // taken off the queue meanwhile (e.g. too late after a set)
+            boolean validated = validators != null && next.validated.join();
+
+            table.setsToCheckLock.lock();
+            try {
+                setToCheck = next;
+                table.setsToCheck.remove(next); //setToCheck supposed to be thread safe
                 //}
 
-                int player = setToCheck[0][0];
+                int player = setToCheck.player;
                 Player playerToCheck = getPlayer(player);
-                int[] cardsToCheck = setToCheck[1];
+                int[] cardsToCheck = setToCheck.cards;
+                if (validators != null && !validated) return false; // the validator gave the verdict
+                if (!onTable(cardsToCheck)) { // the claim was queued after its cards were collected
+                    tooLate(setToCheck);
+                    return false;
+                }
 
-                isSet = this.env.util.testSet(cardsToCheck);
+                isSet = validated || setToCheck.legal(env.util);
                 //System.out.println("isSet-answer:" + isSet); //debug
 
                 if (isSet) {
+                    if (!setToCheck.resolve()) return false; // displaced by a claim pressed earlier (see displace)
+                    env.metrics.claimsAccepted[player].increment();
                     // System.out.println("entered isSet in checkSet in Dealer"); //debug
-                    for (int i = 0; i < env.config.featureSize; i++) {
-                    /*System.out.println("cardsToCheck[i]" + cardsToCheck[i]); //debug
-                    System.out.println("table.cardToSlot[cardsToCheck[i]]" + table.cardToSlot[cardsToCheck[i]]); *///debug
-                        int slotToRemoveFrom = table.cardToSlot[cardsToCheck[i]];
-                        this.env.ui.removeTokens(slotToRemoveFrom); //visually removes tokens from the slot
-                        for (Player p : players) { //removes relevant tokens from tokens lists in players
-                            p.tokens.remove(Integer.valueOf(slotToRemoveFrom));
-                        }
-                        env.logger.info("Dealer found set: "+cardsToCheck+" by Player "+playerToCheck);
-                    }
+                    env.logger.info("Dealer found set: "+Arrays.toString(cardsToCheck)+" by Player "+playerToCheck);
                     playerToCheck.changeFreezedTopoint();
-                    playerToCheck.tokens.removeAll(playerToCheck.tokens); //empty player's tokens
-                    removeCardsFromTable(cardsToCheck);
+                    playerToCheck.emptyTokens(); //empty player's tokens
+                    removeCardsFromTable(cardsToCheck); // and the tokens on them
                     placeCardsOnTable();
                     removeAfterSet(cardsToCheck);
 //                updateTimerDisplay(true, System.currentTimeMillis());
+                    playerToCheck.flag = true;
+                    playerToCheck.WakeUpPlayer();
                 } else {
                     //System.out.println("entered !isSet - Let's penalize"); //debug
-                    playerToCheck.changeFreezedToPenalty();
-                    env.logger.info("Dealer found wrong set");
+                    reject(setToCheck);
                 }
                 env.logger.info("Dealer finished checking set");
-                playerToCheck.flag = true;
-                playerToCheck.WakeUpPlayer();
+            } finally {
+                table.setsToCheckLock.unlock();
+            }
+            if (event.shouldCommit()) {
+                event.player = setToCheck.player;
+                event.cards = Arrays.toString(setToCheck.cards);
+                event.legal = isSet;
+                event.commit();
             }
             return isSet;
     }
 
+    /**
+     * Picks the next claim to check: the first queued, or with an arbitration window, the first pressed once the
+     * window after its press is over, so that a claim pressed earlier but queued later (e.g. its player thread was
+     * scheduled late on a busy host) still wins the cards. A claim that cannot win any cards is picked at once.
+     *
+     * @return - the claim to check (null if there is none).
+     */
+    private Claim nextClaim() throws InterruptedException {
+        if (arbitrationWindowNanos <= 0) return table.setsToCheck.peek();
+        table.setsToCheckLock.lockInterruptibly();
+        try {
+            while (true) {
+                Claim first = null;
+                for (Claim claim : table.setsToCheck) {
+                    if (!contends(claim)) return claim;
+                    if (first == null || claim.pressedNanos - first.pressedNanos < 0) first = claim;
+                }
+                if (first == null) return null;
+                long wait = first.pressedNanos + arbitrationWindowNanos - System.nanoTime();
+                if (wait <= 0) return first;
+                table.setAdded.awaitNanos(wait);
+            }
+        } finally {
+            table.setsToCheckLock.unlock();
+        }
+    }
+
+    /**
+     * @return - false iff the claim is known not to win its cards: it was answered, they were collected, or it is not a
+     * legal set.
+     */
+    private boolean contends(Claim claim) {
+        if (claim.resolved() || !onTable(claim.cards)) return false;
+        if (validators == null) return claim.legal(env.util);
+        return !claim.validated.isDone() || claim.validated.join();
+    }
+
     void checkSetDemo() {
         while (!table.setsToCheck.isEmpty()) {
             //System.out.println("dealer entered checkSet"); //debug
             boolean isSet;
-            int[][] setToCheck;
+            Claim setToCheck;
 
-            synchronized (table.setsToCheck) {
+            table.setsToCheckLock.lock();
+            try {
                 setToCheck = table.setsToCheck.remove(); //setToCheck supposed to be thread safe
                 //}
 
-                int player = setToCheck[0][0];
+                int player = setToCheck.player;
                 Player playerToCheck = getPlayer(player);
-                int[] cardsToCheck = setToCheck[1];
+                int[] cardsToCheck = setToCheck.cards;
 
                 isSet = this.env.util.testSet(cardsToCheck);
                 //System.out.println("isSet-answer:" + isSet); //debug
@@ -228,29 +349,88 @@ public class Dealer implements Runnable {
                 env.logger.info("Dealer finished checking set");
                 playerToCheck.flag = true;
                 playerToCheck.WakeUpPlayer();
+            } finally {
+                table.setsToCheckLock.unlock();
             }
         }
     }
 
     private void printInfoAboutSets() {
-        List<int[]> l = env.util.findSets(deck, 1000);
-        System.out.println("num of sets: " + l.size());
-        System.out.println("Size of deck: " + deck.size());
+        int[] count = new int[1];
+        env.util.forEachSet(deck.cards(), deck.size(), set -> ++count[0] < 1000);
+        env.logger.info("num of sets: " + count[0]);
+        env.logger.info("Size of deck: " + deck.size());
         //System.out.println("Cards of first Set: " + l.get(0)[0] + " ," + l.get(0)[1] + " ," + l.get(0)[2]);
     }
 
 
+    /**
+     * Drops the pending claims sharing a card with a set that was just collected: they are too late.
+     */
     void removeAfterSet(int[] cardsOfSet) {
-        for (int[][] arr : table.setsToCheck) {
-            int[] crdsToChck = arr[1];
-            boolean stop = false;
-            for (int i = 0; i < env.config.featureSize && !stop; i++) {
-                if (crdsToChck[i] == cardsOfSet[0] || crdsToChck[i] == cardsOfSet[1] || crdsToChck[i] == cardsOfSet[2]) {
-                    table.setsToCheck.remove(arr);
-                    stop = true;
-                }
+        for (Claim claim : table.setsToCheck)
+            if (claim.overlaps(cardsOfSet) && table.setsToCheck.remove(claim))
+                tooLate(claim);
+    }
+
+    private boolean onTable(int[] cards) {
+        for (int card : cards)
+            if (table.cardToSlot[card] == null) return false;
+        return true;
+    }
+
+    /**
+     * Validates a claim the player has just queued on one of the validators (see Config.claimValidators), if any.
+     * The validator penalizes an illegal set and releases the player of a set whose cards left the table (told by
+     * the table version the claim was stamped with), so only legal sets reach checkSet to be committed.
+     */
+    void validate(Claim claim) {
+        if (validators == null) return;
+        long shard = claim.key >= 0 ? claim.key : claim.player;
+        validators[(int) Math.floorMod(shard, (long) validators.length)].execute(() -> {
+            boolean commit = false;
+            try {
+                if (!env.util.testSet(claim.cards)) reject(claim);
+                else if (claim.tableVersion == table.version() || onTable(claim.cards)) commit = true;
+                else tooLate(claim);
+            } finally {
+                claim.validated.complete(commit);
             }
-        }
+        });
+    }
+
+    /**
+     * Penalizes a player for an illegal set.
+     */
+    private void reject(Claim claim) {
+        if (claim.key >= 0) table.claimedCards.remove(claim.key, claim); // the same cards may be claimed again
+        if (!claim.resolve()) return;
+        env.metrics.claimsRejected[claim.player].increment();
+        Player player = getPlayer(claim.player);
+        player.changeFreezedToPenalty();
+        env.logger.info("Dealer found wrong set");
+        player.flag = true;
+        player.WakeUpPlayer();
+    }
+
+    /**
+     * Releases the player of a claim that a claim on the same cards pressed earlier took the place of, in
+     * Table.claimedCards and in setsToCheck: it is too late, even if the player queued it first.
+     */
+    void displace(Claim claim) {
+        tooLate(claim);
+    }
+
+    /**
+     * Releases a player whose claim cannot be checked anymore (its cards left the table), with no point or penalty.
+     */
+    private void tooLate(Claim claim) {
+        if (claim.key >= 0) table.claimedCards.remove(claim.key, claim); // its cards may be dealt again
+        if (!claim.resolve()) return;
+        env.metrics.claimsTooLate[claim.player].increment();
+        Player player = getPlayer(claim.player);
+        player.flag = true;
+        player.WakeUpPlayer();
     }
 
     /**
@@ -267,22 +447,32 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        env.logger.info("Entered shouldFinish, zero for no sets and 1 for there are sets:"+(env.util.findSets(deck, 1)).size());
-        return terminate || (env.util.findSets(deck, 1)).size() == 0;
+        boolean[] found = new boolean[1];
+        env.util.forEachSet(deck.cards(), deck.size(), set -> {
+            found[0] = true;
+            return false; // one set is enough
+        });
+        env.logger.info("Entered shouldFinish, false for no sets and true for there are sets:"+found[0]);
+        return terminate || !found[0];
     }
 
     /**
-     * Checks if any cards should be removed from the table and returns them to the deck.
+     * Checks if any cards should be removed from the table and returns them to the deck. The tokens on them are
+     * removed under the same table lock, so no player can place a token on a card between the two.
      */
-    private void removeCardsFromTable(int[] cardsOfSet) {
-        synchronized (table) {
+    void removeCardsFromTable(int[] cardsOfSet) {
+        table.lock.lock();
+        try {
             table.allCardsOnTable = false;
             for (int i = 0; i < env.config.featureSize; i++) {
 //                System.out.println(cardsOfSet[i]); //debug
 //                System.out.println(table.cardToSlot[cardsOfSet[i]]); //debug
                 int slotToRemoveFrom = table.cardToSlot[cardsOfSet[i]];
+                removeTokensFromSlot(slotToRemoveFrom);
                 table.removeCard(slotToRemoveFrom);
             }
+        } finally {
+            table.lock.unlock();
         }
     }
 
@@ -290,26 +480,133 @@ public class Dealer implements Runnable {
      * Check if any cards can be removed from the deck and placed on the table.
      */
     public void placeCardsOnTable() {
-        synchronized (table) {
+        table.lock.lock();
+        try {
             table.allCardsOnTable = false;
+            foldExtraSlots();
+            boolean[] dealt = new boolean[env.config.maxTableSize];
             if (table.countCards() < env.config.tableSize) {
-                Collections.shuffle(deck);
                 for (int i = 0; i < env.config.tableSize; i++) {
-                    if (table.slotToCard[i] == null && deck.size() > 0) { // && i < deck.size()
-                        int card = deck.get(0);
-                        table.placeCard(card, i);
-                        deck.remove(0);
+                    if (table.slotToCard[i] == null && !deck.isEmpty()) {
+                        table.placeCard(deck.draw(), i);
+                        env.metrics.cardsDealt.increment();
+                        dealt[i] = true;
                     }
                 }
             }
+            tableHasSet = ensureSetOnTable(dealt);
             table.allCardsOnTable = true;
+        } finally {
+            table.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the cards of the extra slots into the empty slots of the table and shrinks it back, so that extra cards
+     * are played out before new ones are dealt.
+     */
+    private void foldExtraSlots() {
+        int slots = table.slots();
+        if (slots <= env.config.tableSize) return;
+        int target = Math.max(env.config.tableSize, table.countCards());
+        int empty = 0;
+        for (int slot = target; slot < slots; slot++) {
+            Integer card = table.slotToCard[slot];
+            if (card == null) continue;
+            while (table.slotToCard[empty] != null) empty++;
+            removeTokensFromSlot(slot);
+            table.removeCard(slot);
+            table.placeCard(card, empty);
         }
+        table.resize(target);
+    }
+
+    /**
+     * Makes sure the table contains a legal set, so that players never wait for a reshuffle of a dead table.
+     * If there is no set on the table, extra cards are dealt (up to maxTableSize). If there is still none but the deck
+     * can complete one, the deck cards of that set are swapped in, replacing the cards just dealt first (they carry
+     * no tokens).
+     *
+     * @param dealt - the slots that were dealt in this round.
+     * @return - true iff the table contains a legal set.
+     */
+    private boolean ensureSetOnTable(boolean[] dealt) {
+        int[] set = new int[env.config.featureSize];
+        int[] cards = new int[env.config.maxTableSize + deck.size()];
+        int onTable = 0;
+        for (Integer card : table.slotToCard)
+            if (card != null) cards[onTable++] = card;
+        if (setIndex.findSet(cards, onTable, set)) return true;
+
+        while (!deck.isEmpty() && table.slots() < env.config.maxTableSize) {
+            int slots = table.slots();
+            int extra = Math.min(env.config.featureSize, env.config.maxTableSize - slots);
+            table.resize(slots + extra);
+            for (int slot = slots; slot < slots + extra && !deck.isEmpty(); slot++) {
+                int card = deck.draw();
+                table.placeCard(card, slot);
+                env.metrics.cardsDealt.increment();
+                dealt[slot] = true;
+                cards[onTable++] = card;
+            }
+            if (setIndex.findSet(cards, onTable, set)) {
+                env.logger.info("dealer added extra cards to have a set on the table");
+                return true;
+            }
+        }
+
+        System.arraycopy(deck.cards(), 0, cards, onTable, deck.size());
+        if (!setIndex.findSet(cards, onTable + deck.size(), set)) {
+            env.logger.info("no set left on the table and deck");
+            return false;
+        }
+
+        for (int card : set) {
+            if (!deck.contains(card)) continue;
+            int slot = slotToSwap(set, dealt);
+            if (!dealt[slot]) removeTokensFromSlot(slot);
+            deck.add(table.slotToCard[slot]);
+            table.removeCard(slot);
+            deck.remove(card);
+            table.placeCard(card, slot);
+            env.metrics.cardsDealt.increment();
+        }
+        env.logger.info("dealer swapped cards in to have a set on the table");
+        return true;
+    }
+
+    /**
+     * Picks a slot whose card is not part of the given set, preferring slots dealt in this round.
+     */
+    private int slotToSwap(int[] set, boolean[] dealt) {
+        int fallback = -1;
+        for (int slot = 0; slot < table.slots(); slot++) {
+            Integer card = table.slotToCard[slot];
+            if (card == null || contains(set, card)) continue;
+            if (dealt[slot]) return slot;
+            if (fallback < 0) fallback = slot;
+        }
+        return fallback;
+    }
+
+    private static boolean contains(int[] cards, int card) {
+        for (int c : cards)
+            if (c == card) return true;
+        return false;
+    }
+
+    /**
+     * Removes the tokens of all players from a slot.
+     */
+    void removeTokensFromSlot(int slot) {
+        for (int player : table.removeTokens(slot)) //removes the tokens from the tokens of the players who had them
+            players[player].clearToken(slot);
     }
 
     /**
      * Reset and/or update the countdown and the countdown display.
      */
-    private void updateTimerDisplay(boolean reset, long curr) {
+    void updateTimerDisplay(boolean reset, long curr) {
         if (reset)
             reset();
         if (curr < 0)
@@ -328,29 +625,38 @@ public class Dealer implements Runnable {
      * Returns all the cards from the table to the deck.
      */
     private void removeAllCardsFromTable() {
-        synchronized (table) {
+        table.lock.lock();
+        try {
             table.allCardsOnTable = false;
-            for (int slotInd = 0; slotInd < env.config.tableSize; slotInd++) {
+            int returned = 0;
+            for (int slotInd = 0; slotInd < table.slots(); slotInd++) {
                 if (table.slotToCard[slotInd] != null) {
+                    returned++;
                     int cardToRemove = table.slotToCard[slotInd];
                     deck.add(cardToRemove);
-                    for (Player p : players) { //was out of the {}
-                        table.removeToken(p.id, slotInd);
-                    }
+                    table.removeTokens(slotInd);
                     table.removeCard(slotInd);
                 }
             }
+            table.resize(env.config.tableSize);
             removePlayersTokens();
             removePlayersPresses();
+            for (Claim claim; (claim = table.setsToCheck.poll()) != null; )
+                tooLate(claim);
+            table.claimedCards.clear(); // the cards return to the deck and may be claimed again
+            env.metrics.reshuffles.increment();
+            GameEvents.reshuffle(returned, deck.size());
+        } finally {
+            table.lock.unlock();
         }
     }
 
-    private void removePlayersTokens() {
+    void removePlayersTokens() {
         for (Player p : players)
             p.emptyTokens();
     }
 
-    private void removePlayersPresses() {
+    void removePlayersPresses() {
         for (Player p : players)
             p.emptyPressesQueue();
     }
@@ -1,12 +1,12 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.ProfiledLock;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
 
 /**
  * This class manages the players' threads and data
@@ -56,15 +56,35 @@ public class Player implements Runnable {
      */
     private int score;
 
-//    private Dealer dealer;
+    private final Dealer dealer;
 
-    List<Integer> tokens; //list of size 3, each element is a slot
-    private BlockingQueue<Integer> pressesQueue;
+    /**
+     * The dealer if it is an actor (see ActorDealer), which then owns the tokens and handles the key presses.
+     */
+    private final ActorDealer actor;
+
+    /**
+     * The slots the player has tokens on, a bit per slot. Tokens are only placed by the player thread (or the actor
+     * dealer), but the dealer clears them when it collects or returns cards, so every update is atomic.
+     */
+    private final AtomicLongArray tokens;
+    private final PressRing presses;
 
     public boolean flag = false;
 
     public volatile int freezed = 0;
 
+    /**
+     * The number of verdicts (point or penalty) the player has received.
+     */
+    private volatile long verdicts;
+
+    /**
+     * Guards the verdict of the dealer (flag and freezed), and signals the player when it is ready.
+     */
+    private final ProfiledLock lock;
+    private final Condition verdictReady;
+
 
 
     /**
@@ -78,12 +98,16 @@ public class Player implements Runnable {
      */
     public Player(Env env, Dealer dealer, Table table, int id, boolean human) {
         this.env = env;
-//        this.dealer=dealer;
+        this.dealer=dealer;
+        this.actor = dealer instanceof ActorDealer ? (ActorDealer) dealer : null;
         this.table = table;
         this.id = id;
         this.human = human;
-        tokens = new ArrayList<>();
-        pressesQueue = new ArrayBlockingQueue<Integer>(env.config.featureSize);
+        tokens = new AtomicLongArray((env.config.maxTableSize + Long.SIZE - 1) / Long.SIZE);
+        presses = new PressRing(env.config.pressBufferSize, overflow(env, human),
+                env.metrics.pressesDropped);
+        lock = new ProfiledLock("player", env.config.lockProfiling);
+        verdictReady = lock.newCondition();
     }
 
     //for tests only
@@ -93,8 +117,13 @@ public class Player implements Runnable {
         this.id = id;
         this.human = human;
         this.score=score;
-        tokens = new ArrayList<>();
-        pressesQueue = new ArrayBlockingQueue<Integer>(env.config.featureSize);
+        this.dealer=null;
+        this.actor=null;
+        tokens = new AtomicLongArray((env.config.maxTableSize + Long.SIZE - 1) / Long.SIZE);
+        presses = new PressRing(env.config.pressBufferSize, overflow(env, human),
+                env.metrics.pressesDropped);
+        lock = new ProfiledLock("player", env.config.lockProfiling);
+        verdictReady = lock.newCondition();
     }
 
     /**
@@ -108,21 +137,25 @@ public class Player implements Runnable {
             createArtificialIntelligence();
 
         try {
+            if (actor != null) // the actor handles the presses, nothing to do until the game terminates
+                while (!terminate) Thread.sleep(Long.MAX_VALUE);
             while (!terminate) {
-                if (!pressesQueue.isEmpty()) {
-                    int queueSlot = pressesQueue.peek();
-                    pressesQueue.remove();
-                    if (!tokens.contains(queueSlot) && tokens.size() < 3 && table.slotToCard[queueSlot] != null) {
-                        this.table.placeToken(id, queueSlot);
-                        tokens.add(queueSlot);
-                        if (tokens.size() == env.config.featureSize) {
-                            sendSetToCheck();
-                        }
-                    } else {
-                        this.table.removeToken(id, queueSlot);
-                        tokens.remove((Integer) queueSlot);
+                presses.take(); // sleeps until a key is pressed
+                int queueSlot = presses.slot();
+                if (!hasToken(queueSlot) && tokenCount() < env.config.featureSize && table.slotToCard[queueSlot] != null) {
+                    // the token is ours before it is on the table, so the dealer clearing the slot clears it too
+                    addToken(queueSlot);
+                    if (!this.table.placeToken(id, queueSlot)) { // the card was collected meanwhile
+                        clearToken(queueSlot);
+                        continue;
                     }
-
+                    env.metrics.pressToToken[id].record(System.nanoTime() - presses.pressedNanos());
+                    if (tokenCount() == env.config.featureSize) {
+                        sendSetToCheck(presses.pressedNanos());
+                    }
+                } else {
+                    clearToken(queueSlot);
+                    this.table.removeToken(id, queueSlot);
                 }
             }
         } catch (InterruptedException e) {
@@ -136,21 +169,52 @@ public class Player implements Runnable {
     }
 
 
-    private void sendSetToCheck() throws InterruptedException {
-
-        synchronized (table.setsToCheck) {
+    /**
+     * @param pressedNanos - the time of the press that completed the set (see Claim.pressedNanos).
+     */
+    private void sendSetToCheck(long pressedNanos) throws InterruptedException {
+
+        long sentNanos = System.nanoTime();
+        Claim claim = createSetToCheck(pressedNanos);
+        if (claim == null) return; // the dealer collected a card of the set meanwhile (and cleared its token)
+        env.metrics.claimsSubmitted[id].increment();
+        GameEvents.claimSubmitted(id, claim.cards);
+        Claim[] displaced = new Claim[1];
+        if (claim.key >= 0 && table.claimedCards.compute(claim.key, (key, first) -> {
+            if (first == null) return claim;
+            if (env.config.arbitrationWindowMillis > 0 && claim.pressedNanos - first.pressedNanos < 0 && !first.resolved()) {
+                displaced[0] = first; // pressed later, though claimed first
+                return claim;
+            }
+            return first;
+        }) != claim) {
+            // another player claimed the same cards first: too late, no need to bother the dealer
+            env.logger.info("Player"+id+" was too late to claim " + Arrays.toString(claim.cards));
+            env.metrics.claimsTooLate[id].increment();
+            verdicts++;
+            return;
+        }
+        table.setsToCheckLock.lock();
+        try {
             env.logger.info("Thread " + Thread.currentThread().getName() + "locked table.setsToCheck, Player"+id);
-            table.setsToCheck.add(createSetToCheck());
-            table.setsToCheck.notifyAll();
+            if (displaced[0] != null) table.setsToCheck.remove(displaced[0]); // swapped at once for this claim
+            table.setsToCheck.add(claim);
+            table.setAdded.signalAll();
+        } finally {
+            table.setsToCheckLock.unlock();
         }
+        if (displaced[0] != null && dealer != null) dealer.displace(displaced[0]);
+        if (dealer != null) dealer.validate(claim);
 
-        synchronized (this) {
+        lock.lockInterruptibly();
+        try {
             while (!flag) {
                 //System.out.println("Player" + id + " is waiting");
-                this.wait();
+                verdictReady.await();
             }
             //System.out.println("player woke up for point/penalty"); //debug
             env.logger.info("Player"+id+" woke up for point/penalty");
+            env.metrics.verdictLatency.record(System.nanoTime() - sentNanos);
             flag = false;
 
             if (freezed == 1)
@@ -158,46 +222,49 @@ public class Player implements Runnable {
 
             if (freezed == 2)
                 point();
+            verdicts++;
+        } finally {
+            lock.unlock();
         }
     }
 
-    public synchronized void WakeUpPlayer() {
-        this.notifyAll();
+    public void WakeUpPlayer() {
+        lock.lock();
+        try {
+            verdictReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private int[][] createSetToCheck() {
-        int[][] setToAdd;
+    private Claim createSetToCheck(long pressedNanos) {
         int[] cardsToCheck;
+        long version = table.version(); // read before the cards, so a change in between shows as a new version
 //        synchronized (table) {
-            setToAdd = new int[2][];
-            int[] playerArr = new int[1];
-            playerArr[0] = this.id;
-            setToAdd[0] = playerArr;
             cardsToCheck = new int[env.config.featureSize];
             int i = 0;
-            for (Integer token : tokens) {
-                if (table.slotToCard[token]==null) {
-                    System.out.println();
-                }
-                cardsToCheck[i] = table.slotToCard[token];
+            for (int slot = nextToken(0); slot >= 0; slot = nextToken(slot + 1)) {
+                Integer card = table.slotToCard[slot];
+                if (card == null || i == cardsToCheck.length) return null;
+                cardsToCheck[i] = card;
                 i++;
             }
+            if (i < cardsToCheck.length) return null;
 //        }
-        setToAdd[1] = cardsToCheck;
-        return setToAdd;
+        return new Claim(id, cardsToCheck, env.config.deckSize, version, pressedNanos);
     }
 
     /**
-     * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
-     * key presses. If the queue of key presses is full, the thread waits until it is not full.
+     * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly lets the
+     * configured strategy (see AiStrategy) generate key presses.
      */
     private void createArtificialIntelligence() {
-        // note: this is a very very smart AI (!)
+        AiStrategy strategy = AiStrategy.of(env, table, this);
         aiThread = new Thread(() -> {
-            while (!terminate) {
-                Random rand = new Random();
-                int RandSlot = rand.nextInt(env.config.tableSize);
-                keyPressed(RandSlot);
+            try {
+                while (!terminate)
+                    strategy.play();
+            } catch (InterruptedException ignored) {
             }
 
             env.logger.info("thread " + Thread.currentThread().getName() + " terminated.");
@@ -208,11 +275,27 @@ public class Player implements Runnable {
     /**
      * Called when the game should be terminated due to an external event.
      */
-    public synchronized void terminate() {
-        env.logger.info("Player"+id+" entered terminate");
-        terminate = true;
-        env.logger.info("Player"+id+" changed terminate to TRUE");
-        playerThread.interrupt();
+    public void terminate() {
+        lock.lock();
+        try {
+            env.logger.info("Player"+id+" entered terminate");
+            terminate = true;
+            env.logger.info("Player"+id+" changed terminate to TRUE");
+            playerThread.interrupt();
+            if (aiThread != null) aiThread.interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the overflow policy of the player's presses (see Config.pressOverflow). Only computer players block:
+     * a human's presses come from the Swing event thread or the remote players' selector thread, which must never
+     * wait for the player, so they drop the new press instead.
+     */
+    private static PressRing.Overflow overflow(Env env, boolean human) {
+        PressRing.Overflow overflow = PressRing.Overflow.of(env.config.pressOverflow, env.logger);
+        return human && overflow == PressRing.Overflow.BLOCK ? PressRing.Overflow.DROP_NEWEST : overflow;
     }
 
     /**
@@ -223,8 +306,14 @@ public class Player implements Runnable {
     public void keyPressed(int slot) {
         boolean x;
         if (freezed == 0 && table.allCardsOnTable) {
-            x = pressesQueue.offer(slot);
-            //System.out.println("presses Queue: " + pressesQueue);
+            long pressedNanos = System.nanoTime(); // stamped before queueing, see Claim.pressedNanos
+            if (actor != null) x = actor.keyPressed(new Press(id, slot, pressedNanos));
+            else if (!human) x = presses.offer(slot, pressedNanos);
+            else synchronized (presses) { // the keyboard and a remote player may press for the same player
+                x = presses.offer(slot, pressedNanos);
+            }
+            if (x) env.metrics.pressesAccepted.increment();
+            //System.out.println("presses Queue: " + presses);
             //System.out.println(x);
         }
     }
@@ -236,6 +325,8 @@ public class Player implements Runnable {
      * @post - the player's score is updated in the ui.
      */
     public void point() {
+        GameEvents.Freeze event = new GameEvents.Freeze();
+        event.begin();
         score++;
         //env.ui.setScore(id, score);
         for (long i = env.config.pointFreezeMillis / 1000; i > 0; i--) {
@@ -249,12 +340,18 @@ public class Player implements Runnable {
         env.ui.setScore(id, score);
         this.env.ui.setFreeze(id, 0);
         freezed = 0;
+        if (event.shouldCommit()) {
+            event.player = id;
+            event.commit();
+        }
     }
 
     /**
      * Penalize a player and perform other related actions.
      */
     public void penalty() {
+        GameEvents.Freeze event = new GameEvents.Freeze();
+        event.begin();
         for (long i = env.config.penaltyFreezeMillis / 1000; i > 0; i--) {
             this.env.ui.setFreeze(id, i * 1000);
             try {
@@ -264,6 +361,11 @@ public class Player implements Runnable {
         }
         this.env.ui.setFreeze(id, 0);
         freezed = 0;
+        if (event.shouldCommit()) {
+            event.player = id;
+            event.penalty = true;
+            event.commit();
+        }
        // System.out.println("finished Penalizing");
     }
 
@@ -271,20 +373,114 @@ public class Player implements Runnable {
         return score;
     }
 
+    /**
+     * @return - the number of verdicts (point or penalty) the player has received.
+     */
+    public long verdicts() {
+        return verdicts;
+    }
+
+    /**
+     * @return - a snapshot of the slots the player has tokens on.
+     */
+    int[] tokenSlots() {
+        int[] slots = new int[tokenCount()];
+        int i = 0;
+        for (int slot = nextToken(0); slot >= 0 && i < slots.length; slot = nextToken(slot + 1))
+            slots[i++] = slot;
+        return i == slots.length ? slots : Arrays.copyOf(slots, i);
+    }
+
+    boolean hasToken(int slot) {
+        return (tokens.get(slot / Long.SIZE) & (1L << slot)) != 0;
+    }
+
+    /**
+     * @return - the number of tokens the player has on the table.
+     */
+    int tokenCount() {
+        int count = 0;
+        for (int word = 0; word < tokens.length(); word++) count += Long.bitCount(tokens.get(word));
+        return count;
+    }
+
+    /**
+     * Places a token of the player on a slot. Called by the player thread (or the actor dealer) only.
+     */
+    void addToken(int slot) {
+        int word = slot / Long.SIZE;
+        long bits;
+        do {
+            bits = tokens.get(word);
+        } while (!tokens.compareAndSet(word, bits, bits | 1L << slot));
+    }
+
+    /**
+     * Removes the player's token from a slot, if any. May be called by the dealer.
+     */
+    void clearToken(int slot) {
+        int word = slot / Long.SIZE;
+        long bits;
+        do {
+            bits = tokens.get(word);
+        } while ((bits & 1L << slot) != 0 && !tokens.compareAndSet(word, bits, bits & ~(1L << slot)));
+    }
+
+    /**
+     * @return - the first slot from the given one on which the player has a token (-1 if none).
+     */
+    private int nextToken(int from) {
+        for (int word = from / Long.SIZE; word < tokens.length(); word++) {
+            long bits = tokens.get(word);
+            if (word == from / Long.SIZE) bits &= -1L << from;
+            if (bits != 0) return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    /**
+     * Gives the player a verdict of the actor dealer, which keeps the scores and the freezes (see ActorDealer).
+     *
+     * @param point  - true for a point, false for a penalty.
+     * @param freeze - true iff the player is frozen until unfreeze is called.
+     */
+    void verdict(boolean point, boolean freeze) {
+        if (point) env.ui.setScore(id, ++score);
+        freezed = !freeze ? 0 : point ? 2 : 1;
+        verdicts++;
+    }
+
+    void unfreeze() {
+        freezed = 0;
+    }
+
+    /**
+     * Removes all the player's tokens. May be called by the dealer.
+     */
     public void emptyTokens() {
-        tokens.removeAll(tokens);
+        for (int word = 0; word < tokens.length(); word++) tokens.set(word, 0);
     }
 
     public void emptyPressesQueue() {
-        pressesQueue.removeAll(pressesQueue);
+        presses.clear();
     }
 
-    public synchronized void changeFreezedToPenalty() {
-        freezed = 1;
+    public void changeFreezedToPenalty() {
+        lock.lock();
+        try {
+            freezed = 1;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void changeFreezedTopoint() {
-        freezed = 2;
+    public void changeFreezedTopoint() {
+        lock.lock();
+        try {
+            freezed = 2;
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
@@ -0,0 +1,22 @@
+package bguspl.set.ex;
+
+/**
+ * A key press of a player, stamped when it was made (before it is queued), so that claims can be ordered by who
+ * pressed first rather than by who was scheduled first.
+ */
+final class Press {
+
+    final int player;
+    final int slot;
+
+    /**
+     * The time of the press (System.nanoTime).
+     */
+    final long pressedNanos;
+
+    Press(int player, int slot, long pressedNanos) {
+        this.player = player;
+        this.slot = slot;
+        this.pressedNanos = pressedNanos;
+    }
+}
@@ -0,0 +1,166 @@
+package bguspl.set.ex;
+
+import bguspl.set.Metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A bounded single producer, single consumer ring buffer of key presses: the slot pressed and the time of the press,
+ * kept in primitive arrays so that queueing a press allocates nothing. The producer is the player's input thread
+ * (keyboard, remote player or AI), and the consumer is the player thread, which sleeps while the ring is empty.
+ * When the ring is full, the overflow policy drops the new press, drops the oldest press waiting, or blocks the
+ * producer until there is room.
+ * The head is only moved forward by compare and set, so the producer (dropping the oldest press) and other threads
+ * (clearing the ring) may move it too: a consumer that loses the race for a press just reads the next one.
+ */
+final class PressRing {
+
+    enum Overflow {
+        DROP_NEWEST, DROP_OLDEST, BLOCK;
+
+        /**
+         * @param name   - the name of the policy, as in Config.pressOverflow.
+         * @param logger - reports an unknown name.
+         * @return - the policy (DROP_NEWEST if the name is unknown).
+         */
+        static Overflow of(String name, Logger logger) {
+            switch (name) {
+                case "dropnewest":
+                    return DROP_NEWEST;
+                case "dropoldest":
+                    return DROP_OLDEST;
+                case "block":
+                    return BLOCK;
+                default:
+                    logger.severe("unknown press overflow " + name + ", using dropnewest");
+                    return DROP_NEWEST;
+            }
+        }
+    }
+
+    private final int[] slots;
+    private final long[] pressedNanos;
+    private final Overflow overflow;
+    private final Metrics.Counter dropped;
+
+    /**
+     * The sequence number of the next press to take, and of the next press to put.
+     */
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+
+    /**
+     * The thread sleeping until a press is put (the consumer) or taken (a blocked producer), if any.
+     */
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+
+    /**
+     * The last press taken, owned by the consumer.
+     */
+    private int slot;
+    private long slotPressedNanos;
+
+    /**
+     * @param capacity - the number of presses the ring holds.
+     * @param overflow - what to do with a press when the ring is full.
+     * @param dropped  - counts the presses dropped.
+     */
+    PressRing(int capacity, Overflow overflow, Metrics.Counter dropped) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        slots = new int[capacity];
+        pressedNanos = new long[capacity];
+        this.overflow = overflow;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Puts a press. Called by the producer only.
+     *
+     * @param slot         - the slot pressed.
+     * @param pressedNanos - the time of the press (System.nanoTime).
+     * @return - true iff the press was put (false if it was dropped, or the producer was interrupted while blocked).
+     */
+    boolean offer(int slot, long pressedNanos) {
+        long t = tail;
+        while (t - head.get() >= slots.length) {
+            switch (overflow) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return false;
+                case DROP_OLDEST:
+                    long h = head.get();
+                    if (t - h >= slots.length && head.compareAndSet(h, h + 1)) dropped.increment();
+                    break;
+                case BLOCK:
+                    waitingProducer = Thread.currentThread();
+                    if (t - head.get() >= slots.length) LockSupport.park(this);
+                    waitingProducer = null;
+                    if (Thread.currentThread().isInterrupted()) {
+                        dropped.increment();
+                        return false;
+                    }
+                    break;
+            }
+        }
+        int index = (int) (t % slots.length);
+        slots[index] = slot;
+        this.pressedNanos[index] = pressedNanos;
+        tail = t + 1;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Takes the oldest press, waiting for one if the ring is empty. Called by the consumer only, which then reads the
+     * press through slot and pressedNanos.
+     *
+     * @throws InterruptedException - if the consumer was interrupted while waiting.
+     */
+    void take() throws InterruptedException {
+        while (true) {
+            long h = head.get();
+            if (h < tail) {
+                int index = (int) (h % slots.length);
+                int takenSlot = slots[index];
+                long takenNanos = pressedNanos[index];
+                if (!head.compareAndSet(h, h + 1)) continue; // dropped or cleared meanwhile (and maybe overwritten)
+                slot = takenSlot;
+                slotPressedNanos = takenNanos;
+                Thread producer = waitingProducer;
+                if (producer != null) LockSupport.unpark(producer);
+                return;
+            }
+            waitingConsumer = Thread.currentThread();
+            if (head.get() >= tail) LockSupport.park(this);
+            waitingConsumer = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * @return - the slot of the last press taken.
+     */
+    int slot() {
+        return slot;
+    }
+
+    /**
+     * @return - the time of the last press taken (System.nanoTime).
+     */
+    long pressedNanos() {
+        return slotPressedNanos;
+    }
+
+    /**
+     * Drops all the presses waiting. May be called by any thread.
+     */
+    void clear() {
+        for (long h = head.get(), t = tail; h < t && !head.compareAndSet(h, t); h = head.get()) ;
+        Thread producer = waitingProducer;
+        if (producer != null) LockSupport.unpark(producer);
+    }
+}
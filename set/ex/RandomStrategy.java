@@ -0,0 +1,30 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presses random slots (at most ComputerPressesPerSecond presses per second), finding sets only by luck.
+ */
+class RandomStrategy implements AiStrategy {
+
+    private final Table table;
+    private final Player player;
+    private final Random random;
+    private final long pressIntervalNanos;
+
+    RandomStrategy(Env env, Table table, Player player, Random random) {
+        this.table = table;
+        this.player = player;
+        this.random = random;
+        pressIntervalNanos = env.config.computerPressesPerSecond > 0 ? 1_000_000_000L / env.config.computerPressesPerSecond : 0;
+    }
+
+    @Override
+    public void play() throws InterruptedException {
+        player.keyPressed(random.nextInt(table.slots()));
+        if (pressIntervalNanos > 0) TimeUnit.NANOSECONDS.sleep(pressIntervalNanos);
+    }
+}
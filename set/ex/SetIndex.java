@@ -0,0 +1,120 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.Arrays;
+
+/**
+ * Finds sets by completing them instead of testing every combination.
+ * For any featureSize - 1 cards there is at most one card that completes them into a legal set: in every feature the
+ * missing value is either the common one (all same) or the only value not used yet (all different). So a set is found
+ * by enumerating (featureSize - 1)-combinations and looking the completing card up in a membership table, which is
+ * O(n^2) for the classic game instead of O(n^3).
+ */
+public class SetIndex {
+
+    private final int featureCount;
+    private final int featureSize;
+
+    /**
+     * The features of every card in the deck.
+     */
+    private final int[][] features;
+
+    /**
+     * The sum of all feature values (0 + 1 + ... + featureSize - 1).
+     */
+    private final int valuesSum;
+
+    /**
+     * Membership table: present[card] == stamp iff the card is in the collection currently searched.
+     */
+    private final int[] present;
+    private int stamp;
+
+    public SetIndex(Env env) {
+        featureCount = env.config.featureCount;
+        featureSize = env.config.featureSize;
+        int[] deck = new int[env.config.deckSize];
+        for (int card = 0; card < deck.length; ++card) deck[card] = card;
+        features = env.util.cardsToFeatures(deck);
+        valuesSum = featureSize * (featureSize - 1) / 2;
+        present = new int[env.config.deckSize];
+    }
+
+    /**
+     * Computes the card that completes the given cards into a legal set.
+     *
+     * @param cards - featureSize - 1 distinct card ids (featureSize > 2).
+     * @return - the completing card id, or -1 if there is none.
+     */
+    public int complete(int[] cards) {
+        int card = 0;
+        for (int f = 0; f < featureCount; ++f) {
+            int first = features[cards[0]][f];
+            boolean same = true;
+            int seen = 0, sum = 0;
+            for (int c : cards) {
+                int value = features[c][f];
+                same &= value == first;
+                seen |= 1 << value;
+                sum += value;
+            }
+            int value;
+            if (same) value = first;
+            else if (Integer.bitCount(seen) == cards.length) value = valuesSum - sum;
+            else return -1;
+            card = card * featureSize + value;
+        }
+        return card;
+    }
+
+    /**
+     * Finds a legal set in a collection of cards.
+     *
+     * @param cards - an array of distinct card ids (only the first size entries are used).
+     * @param size  - the number of cards to search in.
+     * @param set   - an array of featureSize entries to receive the set found.
+     * @return - true iff a set was found.
+     */
+    public synchronized boolean findSet(int[] cards, int size, int[] set) {
+        int r = featureSize;
+        if (r < 2 || size < r) return false;
+        if (r == 2) { // every pair of distinct cards is a set, a single card cannot be completed uniquely
+            set[0] = cards[0];
+            set[1] = cards[1];
+            return true;
+        }
+        if (++stamp == 0) {
+            Arrays.fill(present, 0);
+            stamp = 1;
+        }
+        for (int i = 0; i < size; ++i) present[cards[i]] = stamp;
+
+        // enumerate the (r - 1)-combinations in lexicographic order and look up the completing card
+        int[] combination = new int[r - 1];
+        int[] partial = new int[r - 1];
+        for (int i = 0; i < r - 1; ++i) combination[i] = i;
+        while (combination[r - 2] < size) {
+            for (int i = 0; i < r - 1; ++i) partial[i] = cards[combination[i]];
+            int last = complete(partial);
+            if (last >= 0 && present[last] == stamp && !contains(partial, last)) {
+                System.arraycopy(partial, 0, set, 0, r - 1);
+                set[r - 1] = last;
+                return true;
+            }
+
+            int t = r - 2;
+            while (t != 0 && combination[t] == size - r + 1 + t) --t;
+            combination[t]++;
+            for (int i = t + 1; i < r - 1; i++) combination[i] = combination[i - 1] + 1;
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] cards, int card) {
+        for (int c : cards)
+            if (c == card) return true;
+        return false;
+    }
+}
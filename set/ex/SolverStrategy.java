@@ -0,0 +1,170 @@
+package bguspl.set.ex;
+
+import bguspl.set.Config;
+import bguspl.set.Env;
+
+import java.util.Random;
+
+/**
+ * Plays like a human of a given skill (see Config.Skill): finds a set on a consistent snapshot of the table through
+ * the set index (third card lookup), notices it with the skill's detection probability after a log-normal reaction
+ * time, sometimes claims a wrong set instead, presses the slots of the set and waits for the verdict before looking
+ * again. The snapshot is shuffled, so solvers racing on the same table go for different sets.
+ */
+class SolverStrategy implements AiStrategy {
+
+    /**
+     * How long to wait before looking again when there is nothing to play.
+     */
+    private static final long IDLE_MILLIS = 50;
+
+    /**
+     * How often to check for the verdict, and how long to wait for it before looking at the table again.
+     */
+    private static final long POLL_MILLIS = 5;
+    private static final long VERDICT_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * The longest reaction time drawn, as a multiple of the median (cuts the long tail of the distribution).
+     */
+    private static final long MAX_REACTION_MEDIANS = 10;
+
+    private final Env env;
+    private final Table table;
+    private final Player player;
+    private final SetIndex setIndex;
+    private final Random random;
+    private final Config.Skill skill;
+
+    /**
+     * The snapshot of the table: the cards and the slots they are in.
+     */
+    private final int[] cards;
+    private final int[] slots;
+    private int size;
+
+    /**
+     * The set found and the slots it is in.
+     */
+    private final int[] set;
+    private final int[] setSlots;
+
+    SolverStrategy(Env env, Table table, Player player, Random random, Config.Skill skill) {
+        this.env = env;
+        this.table = table;
+        this.player = player;
+        this.random = random;
+        this.skill = skill;
+        setIndex = new SetIndex(env);
+        cards = new int[env.config.maxTableSize];
+        slots = new int[env.config.maxTableSize];
+        set = new int[env.config.featureSize];
+        setSlots = new int[env.config.featureSize];
+    }
+
+    @Override
+    public void play() throws InterruptedException {
+        if (player.freezed != 0 || !table.allCardsOnTable || !findSet()) {
+            Thread.sleep(IDLE_MILLIS);
+            return;
+        }
+        Thread.sleep(reactionMillis(skill.reactionMedianMillis));
+        if (random.nextDouble() >= skill.detection) return; // did not notice the set, look again
+        if (random.nextDouble() < skill.errorRate) spoilSet();
+
+        long verdicts = player.verdicts();
+        for (int slot : player.tokenSlots()) // lift the tokens that are not on the set
+            if (indexOf(setSlots, slot) < 0) player.keyPressed(slot);
+        int[] tokens = player.tokenSlots();
+        for (int slot : setSlots) {
+            if (indexOf(tokens, slot) >= 0) continue;
+            Thread.sleep(reactionMillis(env.config.solverPressMillis));
+            if (!setOnTable()) return; // too late, another player claimed a card of the set
+            player.keyPressed(slot);
+        }
+
+        // wait for the verdict, or until the set leaves the table (e.g. another player claimed it first)
+        long deadline = System.currentTimeMillis() + VERDICT_TIMEOUT_MILLIS;
+        while (player.verdicts() == verdicts && setOnTable() && System.currentTimeMillis() < deadline)
+            Thread.sleep(POLL_MILLIS);
+    }
+
+    /**
+     * Takes a shuffled snapshot of the cards on the table and looks for a set in it.
+     *
+     * @return - true iff a set was found (in set and setSlots).
+     */
+    private boolean findSet() {
+        size = 0;
+        table.lock.lock();
+        try {
+            for (int slot = 0; slot < table.slots(); slot++) {
+                Integer card = table.slotToCard[slot];
+                if (card == null) continue;
+                cards[size] = card;
+                slots[size] = slot;
+                size++;
+            }
+        } finally {
+            table.lock.unlock();
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            swap(cards, i, j);
+            swap(slots, i, j);
+        }
+
+        if (!setIndex.findSet(cards, size, set)) return false;
+        for (int i = 0; i < set.length; i++)
+            setSlots[i] = slots[indexOf(cards, set[i])];
+        return true;
+    }
+
+    private boolean setOnTable() {
+        for (int i = 0; i < set.length; i++) {
+            Integer card = table.slotToCard[setSlots[i]];
+            if (card == null || card != set[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a card of the set found by another card on the table, so that the claim is wrong (e.g. a misread
+     * feature). Keeps the set if no replacement makes it illegal.
+     */
+    private void spoilSet() {
+        int index = random.nextInt(set.length);
+        int offset = random.nextInt(size);
+        int[] wrong = set.clone();
+        for (int i = 0; i < size; i++) {
+            int j = (offset + i) % size;
+            if (indexOf(set, cards[j]) >= 0) continue;
+            wrong[index] = cards[j];
+            if (env.util.testSet(wrong)) continue;
+            set[index] = cards[j];
+            setSlots[index] = slots[j];
+            return;
+        }
+    }
+
+    /**
+     * @return - a log-normal delay with the given median and the skill's sigma.
+     */
+    private long reactionMillis(long medianMillis) {
+        if (medianMillis <= 0) return 0;
+        double millis = medianMillis * Math.exp(skill.reactionSigma * random.nextGaussian());
+        return (long) Math.min(millis, medianMillis * MAX_REACTION_MEDIANS);
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++)
+            if (values[i] == value) return i;
+        return -1;
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -1,9 +1,13 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.GameEvents;
+import bguspl.set.ProfiledLock;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.locks.Condition;
 import java.util.stream.Collectors;
 
 /**
@@ -28,7 +32,42 @@ public class Table {
      */
     protected final Integer[] cardToSlot; // slot per card (if any)
 
-    protected Queue<int[][]> setsToCheck;
+    protected Queue<Claim> setsToCheck;
+
+    /**
+     * The first claim on each set of cards, by claim key (see Claim.key), until the dealer finds the claim illegal or
+     * reshuffles. Later claims on the same cards are too late and are not queued. With an arbitration window, first
+     * is by the time of the press (see Config.arbitrationWindowMillis): a claim pressed earlier takes the place of
+     * the one held, which is then too late.
+     */
+    protected final ConcurrentHashMap<Long, Claim> claimedCards = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the cards on the table (held by the dealer while it changes them).
+     */
+    protected final ProfiledLock lock;
+
+    /**
+     * Guards setsToCheck, and signals the dealer when a set is added to it.
+     */
+    protected final ProfiledLock setsToCheckLock;
+    protected final Condition setAdded;
+
+    /**
+     * The number of slots currently in use (tableSize, or more while extra cards are dealt).
+     */
+    private volatile int slots;
+
+    /**
+     * Incremented whenever a card is placed or removed, so a claim stamped with it can be validated off the dealer.
+     */
+    private volatile long version;
+
+    /**
+     * The players with a token on each slot: a bit per player, in playerWords words per slot. Guarded by lock.
+     */
+    private final long[] tokens;
+    private final int playerWords;
 
     public volatile boolean allCardsOnTable = false;
 
@@ -44,7 +83,13 @@ public class Table {
         this.env = env;
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
-        this.setsToCheck = new ConcurrentLinkedDeque<int[][]>();
+        this.setsToCheck = new ConcurrentLinkedDeque<Claim>();
+        this.lock = new ProfiledLock("table", env.config.lockProfiling);
+        this.setsToCheckLock = new ProfiledLock("setsToCheck", env.config.lockProfiling);
+        this.setAdded = setsToCheckLock.newCondition();
+        this.slots = Math.min(env.config.tableSize, slotToCard.length);
+        this.playerWords = (env.config.players + Long.SIZE - 1) / Long.SIZE;
+        this.tokens = new long[slotToCard.length * playerWords];
     }
 
     /**
@@ -54,19 +99,20 @@ public class Table {
      */
     public Table(Env env) {
 
-        this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize]);
+        this(env, new Integer[env.config.maxTableSize], new Integer[env.config.deckSize]);
     }
 
     /**
      * This method prints all possible legal sets of cards that are currently on the table.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
+        int[] deck = Arrays.stream(slotToCard).filter(Objects::nonNull).mapToInt(Integer::intValue).toArray();
+        env.util.forEachSet(deck, deck.length, set -> {
             StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
             List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
             int[][] features = env.util.cardsToFeatures(set);
             System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            return true;
         });
     }
 
@@ -88,12 +134,48 @@ public class Table {
      *
      * @return - the number of cards on the table.
      */
-    public synchronized int countCards() {
-        int cards = 0;
-        for (Integer card : slotToCard)
-            if (card != null)
-                ++cards;
-        return cards;
+    public int countCards() {
+        lock.lock();
+        try {
+            int cards = 0;
+            for (Integer card : slotToCard)
+                if (card != null)
+                    ++cards;
+            return cards;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return - the number of slots currently in use.
+     */
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * @return - the version of the cards on the table (it changes whenever a card is placed or removed).
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Grows or shrinks the number of slots in use (e.g. to deal extra cards when there is no legal set).
+     * @param slots - the new number of slots, between tableSize and maxTableSize.
+     *
+     * @pre - the slots removed are empty.
+     */
+    public void resize(int slots) {
+        lock.lock();
+        try {
+            if (slots == this.slots) return;
+            this.slots = slots;
+            this.env.ui.resizeTable(slots);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -103,40 +185,66 @@ public class Table {
      *
      * @post - the card placed is on the table, in the assigned slot.
      */
-    public synchronized void placeCard(int card, int slot) {
-        //is this the delay for card placing? //visual delay, the delay of the dealer should br implemented in dealer
+    public void placeCard(int card, int slot) {
+        lock.lock();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+            //is this the delay for card placing? //visual delay, the delay of the dealer should br implemented in dealer
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {}
 
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
-        this.env.ui.placeCard(card, slot);
+            cardToSlot[card] = slot;
+            slotToCard[slot] = card;
+            version++;
+            this.env.ui.placeCard(card, slot);
+            GameEvents.cardPlaced(card, slot);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Removes a card from a grid slot on the table.
      * @param slot - the slot from which to remove the card.
      */
-    public synchronized void removeCard(int slot) {
+    public void removeCard(int slot) {
+        lock.lock();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+            try {
+                Thread.sleep(env.config.tableDelayMillis);
+            } catch (InterruptedException ignored) {}
 
-        Integer cardToRem=slotToCard[slot];
-        cardToSlot[cardToRem]=null;
-        slotToCard[slot]=null;
+            Integer cardToRem=slotToCard[slot];
+            cardToSlot[cardToRem]=null;
+            slotToCard[slot]=null;
+            version++;
 
-        this.env.ui.removeCard(slot);
+            this.env.ui.removeCard(slot);
+            GameEvents.cardRemoved(cardToRem, slot);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Places a player token on a grid slot.
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
+     * @return       - true iff the token was placed (false if there is no card in the slot).
      */
-    public synchronized void placeToken(int player, int slot) {
-        this.env.ui.placeToken(player, slot);
+    public boolean placeToken(int player, int slot) {
+        lock.lock();
+        try {
+            if (slotToCard[slot] == null) return false;
+            int word = slot * playerWords + player / Long.SIZE;
+            if ((tokens[word] & 1L << player) == 0) {
+                tokens[word] |= 1L << player;
+                this.env.ui.placeToken(player, slot);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -145,7 +253,44 @@ public class Table {
      * @param slot   - the slot from which to remove the token.
      * @return       - true iff a token was successfully removed.
      */
-    public synchronized void removeToken(int player, int slot) {
-        this.env.ui.removeToken(player, slot);
+    public boolean removeToken(int player, int slot) {
+        lock.lock();
+        try {
+            int word = slot * playerWords + player / Long.SIZE;
+            if ((tokens[word] & 1L << player) == 0) return false;
+            tokens[word] &= ~(1L << player);
+            this.env.ui.removeToken(player, slot);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the tokens from a grid slot, in a single update of the display.
+     * @param slot - the slot from which to remove the tokens.
+     * @return     - the players whose tokens were removed.
+     */
+    public int[] removeTokens(int slot) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (int word = slot * playerWords; word < (slot + 1) * playerWords; word++)
+                count += Long.bitCount(tokens[word]);
+            if (count == 0) return new int[0];
+
+            int[] players = new int[count];
+            int i = 0;
+            for (int word = 0; word < playerWords; word++) {
+                long bits = tokens[slot * playerWords + word];
+                tokens[slot * playerWords + word] = 0;
+                for (; bits != 0; bits &= bits - 1)
+                    players[i++] = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+            this.env.ui.removeTokens(slot);
+            return players;
+        } finally {
+            lock.unlock();
+        }
     }
 }